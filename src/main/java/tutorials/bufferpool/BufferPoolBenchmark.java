@@ -0,0 +1,218 @@
+package tutorials.bufferpool;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import tutorials.perftest.GcStats;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPoolBenchmark {
+
+    //NOTES
+    //- Same queue, same messages, same work (count of spaces in the body) with:
+    //  1. "string": "DeliverCallback" path of the tutorials, "new String(delivery.getBody(), "UTF-8")".
+    //  2. "bytes": "DeliverCallback" reading "delivery.getBody()" directly, no decoding and no copy.
+    //  3. "pooled": "PooledDeliverCallback" path, pooled direct "ByteBuffer", released with the ack.
+    //- The client allocates a "byte[]" for every body in ALL modes, "pooled" copies it once more. So "string" vs "bytes" is
+    //  the gain of not decoding, and "bytes" vs "pooled" is what the pool itself costs or brings (off-heap working memory).
+    //- Printed: throughput, bytes allocated per message (all threads, "ThreadMXBean"), GC count and GC time.
+    //- For GC logs and allocation profiles run each mode on its own JVM, for example:
+    //  java -Xlog:gc*:file=gc-string.log -XX:StartFlightRecording=filename=string.jfr,settings=profile ... BufferPoolBenchmark string
+    //  java -Xlog:gc*:file=gc-pooled.log -XX:StartFlightRecording=filename=pooled.jfr,settings=profile ... BufferPoolBenchmark pooled
+    //  then compare "jfr print --events jdk.ObjectAllocationSample" (or JMC's allocation view) of both recordings.
+    //- "offline": NO RabbitMQ node, the three callbacks are called directly with a new "byte[]" body per message (like the
+    //  client does), "release()" instead of the ack. Only the consumer side cost of each mode: ns and bytes allocated per message.
+    //- Usage: BufferPoolBenchmark [string|bytes|pooled|all|offline] [messages] [body size]
+
+    private static final String QUEUE_NAME = "buffer_pool_benchmark";
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "all";
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        int bodySize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        if (mode.equals("offline")) {
+            runOffline(messageCount, bodySize);
+            return;
+        }
+
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+
+        System.out.format("%-8s %10s %12s %14s %6s %8s%n", "mode", "messages", "msg/s", "alloc B/msg", "GCs", "GC ms");
+        for (String run : mode.equals("all") ? new String[]{"string", "bytes", "pooled"} : new String[]{mode}) {
+            //Warm-up run (JIT, pool slabs), then the measured run.
+            run(factory, run, messageCount / 10, bodySize, false);
+            run(factory, run, messageCount, bodySize, true);
+        }
+    }
+
+    static void run(ConnectionFactory factory, String mode, int messageCount, int bodySize, boolean print) throws Exception {
+        try (Connection connection = factory.newConnection()) {
+            //1. Queue filled BEFORE consuming, so only the consumer side is measured.
+            try (Channel producer = connection.createChannel()) {
+                producer.queueDeclare(QUEUE_NAME, false, false, false, null);
+                producer.queuePurge(QUEUE_NAME);
+                producer.confirmSelect();
+                byte[] body = new byte[bodySize];
+                Arrays.fill(body, (byte) 'a');
+                for (int i = 0; i < body.length; i += 8) {
+                    body[i] = ' ';
+                }
+                for (int i = 0; i < messageCount; i++) {
+                    producer.basicPublish("", QUEUE_NAME, null, body);
+                }
+                producer.waitForConfirmsOrDie(60_000);
+            }
+
+            Channel channel = connection.createChannel();
+            channel.basicQos(500);
+            CountDownLatch done = new CountDownLatch(messageCount);
+            AtomicLong spaces = new AtomicLong();
+
+            DeliverCallback deliverCallback;
+            if (mode.equals("pooled")) {
+                DeliveryBufferPool pool = new DeliveryBufferPool();
+                deliverCallback = PooledDeliverCallback.adapt(channel, pool, (consumerTag, delivery) -> {
+                    ByteBuffer message = delivery.getBody();
+                    long count = 0;
+                    for (int i = message.position(); i < message.limit(); i++) {
+                        if (message.get(i) == ' ') {
+                            count++;
+                        }
+                    }
+                    spaces.addAndGet(count);
+                    delivery.ack();
+                    done.countDown();
+                });
+            } else if (mode.equals("bytes")) {
+                deliverCallback = (consumerTag, delivery) -> {
+                    byte[] message = delivery.getBody();
+                    long count = 0;
+                    for (byte b : message) {
+                        if (b == ' ') {
+                            count++;
+                        }
+                    }
+                    spaces.addAndGet(count);
+                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                    done.countDown();
+                };
+            } else {
+                deliverCallback = (consumerTag, delivery) -> {
+                    String message = new String(delivery.getBody(), "UTF-8");
+                    long count = 0;
+                    for (int i = 0; i < message.length(); i++) {
+                        if (message.charAt(i) == ' ') {
+                            count++;
+                        }
+                    }
+                    spaces.addAndGet(count);
+                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                    done.countDown();
+                };
+            }
+
+            //2. Measured: consuming ALL messages.
+            long allocatedBefore = allocatedBytes();
+            long gcCountBefore = GcStats.gcCount();
+            long gcTimeBefore = GcStats.gcTime();
+            long start = System.nanoTime();
+
+            channel.basicConsume(QUEUE_NAME, false, deliverCallback, consumerTag -> { });
+            if (!done.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Messages could not be consumed in 5 minutes");
+            }
+
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            if (print) {
+                System.out.format("%-8s %,10d %,12.0f %,14d %6d %8d%n", mode, messageCount, messageCount / (elapsed / 1e9),
+                        allocated / messageCount, GcStats.gcCount() - gcCountBefore, GcStats.gcTime() - gcTimeBefore);
+            }
+        }
+    }
+
+    static void runOffline(int messageCount, int bodySize) throws Exception {
+        byte[] template = new byte[bodySize];
+        Arrays.fill(template, (byte) 'a');
+        for (int i = 0; i < template.length; i += 8) {
+            template[i] = ' ';
+        }
+        Envelope envelope = new Envelope(1, false, "", QUEUE_NAME);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties();
+        AtomicLong spaces = new AtomicLong();
+
+        DeliverCallback string = (consumerTag, delivery) -> {
+            String message = new String(delivery.getBody(), "UTF-8");
+            long count = 0;
+            for (int i = 0; i < message.length(); i++) {
+                if (message.charAt(i) == ' ') {
+                    count++;
+                }
+            }
+            spaces.addAndGet(count);
+        };
+        DeliverCallback bytes = (consumerTag, delivery) -> {
+            long count = 0;
+            for (byte b : delivery.getBody()) {
+                if (b == ' ') {
+                    count++;
+                }
+            }
+            spaces.addAndGet(count);
+        };
+        //No channel: nothing is acked, "release()" gives the body back to the pool.
+        DeliverCallback pooled = PooledDeliverCallback.adapt(null, new DeliveryBufferPool(false), (consumerTag, delivery) -> {
+            ByteBuffer message = delivery.getBody();
+            long count = 0;
+            for (int i = message.position(); i < message.limit(); i++) {
+                if (message.get(i) == ' ') {
+                    count++;
+                }
+            }
+            spaces.addAndGet(count);
+            delivery.release();
+        });
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.format("%-8s %10s %12s %14s%n", "mode", "messages", "ns/msg", "alloc B/msg");
+        String[] names = {"string", "bytes", "pooled"};
+        DeliverCallback[] callbacks = {string, bytes, pooled};
+        for (int round = 0; round < 2; round++) { // First round is the warm-up (JIT, pool slabs).
+            for (int m = 0; m < callbacks.length; m++) {
+                long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < messageCount; i++) {
+                    //New array per message, like the client's frame assembly.
+                    callbacks[m].handle("offline", new Delivery(envelope, properties, template.clone()));
+                }
+                long elapsed = System.nanoTime() - start;
+                long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                if (round == 1) {
+                    System.out.format("%-8s %,10d %,12.1f %,14d%n", names[m], messageCount, (double) elapsed / messageCount, allocated / messageCount);
+                }
+            }
+        }
+    }
+
+    //Sum for the LIVE threads, the client's threads live as long as the connection, so the run is covered.
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,162 @@
+package tutorials.bufferpool;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//Pool of DIRECT (off-heap) buffers for message bodies, so handlers work on pooled memory instead of a new "byte[]" + "String"
+//for each delivery.
+//- Size classes: powers of two from 256 bytes to 1 MB. Bigger bodies are NOT copied: the client's "byte[]" is wrapped
+//  (a one-off direct buffer would be slower to allocate than the array, and freed only by GC).
+//- Per delivery allocations: the "PooledBuffer" handle and the "PooledDelivery" (small, short-lived). Buffers and their
+//  read-only views are created once per slab.
+//- Thread local arenas: acquire/release on a thread touches ONLY that thread's free lists (no lock, no CAS).
+//  A buffer released on ANOTHER thread (ack from a worker thread) goes back to the arena it came from, through that arena's
+//  lock-free return queue; the owner takes them back when its free list is empty, before allocating a new slab.
+//  Each free list is capped, so nothing grows unbounded.
+//- Each arena carves buffers out of bigger slabs ("slice"), so there is one "allocateDirect" per slab, not per buffer.
+//- Leak detection (buffer GC-ed without "release()"): "-Dtutorials.bufferpool.leakDetection=true", or JVM started
+//  with assertions enabled ("-ea", the usual debug run). It records the acquiring stack trace, so it is NOT for production.
+public class DeliveryBufferPool {
+    static final int MIN_SHIFT = 8;   // 256 B
+    static final int MAX_SHIFT = 20;  // 1 MB
+    private static final int SLAB_SIZE = 1024 * 1024;
+    private static final int MAX_FREE_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    private static final Cleaner LEAK_CLEANER = Cleaner.create();
+
+    private final boolean leakDetection;
+    private final ThreadLocal<Arena> arenas = ThreadLocal.withInitial(Arena::new);
+
+    public DeliveryBufferPool() {
+        this(Boolean.getBoolean("tutorials.bufferpool.leakDetection") || assertionsEnabled());
+    }
+
+    public DeliveryBufferPool(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+    }
+
+    //Copies "body" into a pooled buffer. The caller MUST call "release()" on the returned buffer exactly once.
+    public PooledBuffer copyOf(byte[] body) {
+        int sizeClass = sizeClassOf(body.length);
+        if (sizeClass < 0) {
+            return new PooledBuffer(this, null, null, ByteBuffer.wrap(body).asReadOnlyBuffer(), sizeClass, null);
+        }
+        Arena arena = arenas.get();
+        Slot slot = arena.acquire(sizeClass);
+        slot.writable.clear();
+        slot.writable.put(body);
+        slot.readOnly.clear().limit(body.length);
+        return new PooledBuffer(this, arena, slot, slot.readOnly, sizeClass, leakDetection ? new LeakTracker() : null);
+    }
+
+    //"arena" is the one the slot was acquired from (null for wrapped, not pooled bodies).
+    void release(Arena arena, Slot buffer, int sizeClass) {
+        if (arena == null) {
+            return;
+        }
+        if (arena.owner == Thread.currentThread()) {
+            arena.free(buffer, sizeClass);
+        } else {
+            arena.sizeClasses[sizeClass].returned.offer(buffer);
+        }
+    }
+
+    Cleaner.Cleanable trackLeak(PooledBuffer owner, LeakTracker tracker) {
+        return LEAK_CLEANER.register(owner, tracker);
+    }
+
+    //-1 for bodies bigger than the biggest class.
+    static int sizeClassOf(int size) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    @SuppressWarnings("AssertWithSideEffects")
+    private static boolean assertionsEnabled() {
+        boolean enabled = false;
+        assert enabled = true;
+        return enabled;
+    }
+
+    static class Arena {
+        private final Thread owner = Thread.currentThread();
+        private final SizeClass[] sizeClasses = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+        Arena() {
+            for (int i = 0; i < sizeClasses.length; i++) {
+                sizeClasses[i] = new SizeClass();
+            }
+        }
+
+        //Owner thread only.
+        Slot acquire(int sizeClass) {
+            SizeClass free = sizeClasses[sizeClass];
+            Slot buffer = free.local.pollLast(); // LIFO: the most recently used (cache warm) buffer first.
+            if (buffer == null) {
+                //Buffers released on other threads first, a new slab only when there are none.
+                Slot returned;
+                while ((returned = free.returned.poll()) != null) {
+                    free(returned, sizeClass);
+                }
+                buffer = free.local.pollLast();
+            }
+            if (buffer == null) {
+                refill(sizeClass);
+                buffer = free.local.pollLast();
+            }
+            return buffer;
+        }
+
+        //Owner thread only.
+        void free(Slot buffer, int sizeClass) {
+            int bufferSize = 1 << (sizeClass + MIN_SHIFT);
+            ArrayDeque<Slot> local = sizeClasses[sizeClass].local;
+            if ((local.size() + 1) * bufferSize <= Math.max(MAX_FREE_BYTES_PER_CLASS, bufferSize)) {
+                local.addLast(buffer);
+            }
+            //Otherwise dropped, the slab is freed by GC when all of its slices are unreachable.
+        }
+
+        private void refill(int sizeClass) {
+            int bufferSize = 1 << (sizeClass + MIN_SHIFT);
+            ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, bufferSize));
+            for (int offset = 0; offset + bufferSize <= slab.capacity(); offset += bufferSize) {
+                sizeClasses[sizeClass].local.addLast(new Slot(slab.slice(offset, bufferSize)));
+            }
+        }
+    }
+
+    //Pooled buffer with its read-only view, both created once per slab slice (not per delivery).
+    static class Slot {
+        final ByteBuffer writable;
+        final ByteBuffer readOnly;
+
+        Slot(ByteBuffer writable) {
+            this.writable = writable;
+            this.readOnly = writable.asReadOnlyBuffer();
+        }
+    }
+
+    private static class SizeClass {
+        //Owner thread's free list.
+        final ArrayDeque<Slot> local = new ArrayDeque<>();
+        //Released by other threads (many producers, the owner is the only consumer).
+        final ConcurrentLinkedQueue<Slot> returned = new ConcurrentLinkedQueue<>();
+    }
+
+    //Cleaner action: runs when the "PooledBuffer" is GC-ed (or explicitly on release, then nothing is reported).
+    static class LeakTracker implements Runnable {
+        private final Throwable acquiredAt = new Throwable("Buffer acquired here");
+        volatile boolean released;
+
+        @Override
+        public void run() {
+            if (!released) {
+                System.err.println(" [!] LEAK: pooled delivery buffer was garbage collected without release()");
+                acquiredAt.printStackTrace();
+            }
+        }
+    }
+}
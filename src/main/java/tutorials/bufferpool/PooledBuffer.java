@@ -0,0 +1,54 @@
+package tutorials.bufferpool;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+//Handle of ONE pooled buffer. After "release()" the buffer belongs to the pool again and MUST NOT be read.
+public class PooledBuffer {
+    //Field updater instead of an "AtomicBoolean": one object less per delivery.
+    private static final AtomicIntegerFieldUpdater<PooledBuffer> RELEASED =
+            AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "released");
+
+    private final DeliveryBufferPool pool;
+    //Arena the buffer came from, it goes back there whichever thread releases it.
+    private final DeliveryBufferPool.Arena arena;
+    private final DeliveryBufferPool.Slot slot;
+    private final ByteBuffer view;
+    private final int sizeClass;
+    private volatile int released;
+    private final DeliveryBufferPool.LeakTracker leakTracker;
+    private final Cleaner.Cleanable cleanable;
+
+    PooledBuffer(DeliveryBufferPool pool, DeliveryBufferPool.Arena arena, DeliveryBufferPool.Slot slot, ByteBuffer view,
+                 int sizeClass, DeliveryBufferPool.LeakTracker leakTracker) {
+        this.pool = pool;
+        this.arena = arena;
+        this.slot = slot;
+        this.view = view;
+        this.sizeClass = sizeClass;
+        this.leakTracker = leakTracker;
+        this.cleanable = leakTracker != null ? pool.trackLeak(this, leakTracker) : null;
+    }
+
+    //Read-only view: position 0, limit = body length when delivered. The SAME view on each call (no allocation), so a
+    //handler reading it with relative "get()"s moves the position for later calls too ("rewind()" to read it again).
+    public ByteBuffer buffer() {
+        if (released != 0) {
+            throw new IllegalStateException("Buffer already released");
+        }
+        return view;
+    }
+
+    //Second call is ignored (a buffer in the pool twice would be handed to two deliveries at the same time).
+    public void release() {
+        if (!RELEASED.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        if (cleanable != null) {
+            leakTracker.released = true;
+            cleanable.clean();
+        }
+        pool.release(arena, slot, sizeClass);
+    }
+}
@@ -0,0 +1,29 @@
+package tutorials.bufferpool;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+
+import java.io.IOException;
+
+//"DeliverCallback" counterpart with a pooled, off-heap body.
+//NOTE: the client library still reads each body into a "byte[]" (it is how frames are assembled), that array is copied into
+//the pool right away and becomes garbage immediately (cheap young gen). What this mode removes is the per delivery
+//"new String(body, ...)" decoding and keeps the handler's working memory off-heap and reused.
+@FunctionalInterface
+public interface PooledDeliverCallback {
+    void handle(String consumerTag, PooledDelivery delivery) throws IOException;
+
+    //Adapter for "channel.basicConsume(...)". If the handler throws, the body is released (the delivery is not acked).
+    static DeliverCallback adapt(Channel channel, DeliveryBufferPool pool, PooledDeliverCallback callback) {
+        return (consumerTag, delivery) -> {
+            PooledBuffer body = pool.copyOf(delivery.getBody());
+            PooledDelivery pooled = new PooledDelivery(channel, delivery.getEnvelope(), delivery.getProperties(), body);
+            try {
+                callback.handle(consumerTag, pooled);
+            } catch (IOException | RuntimeException e) {
+                body.release();
+                throw e;
+            }
+        };
+    }
+}
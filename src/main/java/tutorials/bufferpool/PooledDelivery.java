@@ -0,0 +1,58 @@
+package tutorials.bufferpool;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//Delivery with a pooled body. "ack()"/"nack()" also release the body, so the normal flow has nothing extra to remember.
+public class PooledDelivery {
+    private final Channel channel;
+    private final Envelope envelope;
+    private final AMQP.BasicProperties properties;
+    private final PooledBuffer body;
+
+    PooledDelivery(Channel channel, Envelope envelope, AMQP.BasicProperties properties, PooledBuffer body) {
+        this.channel = channel;
+        this.envelope = envelope;
+        this.properties = properties;
+        this.body = body;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public AMQP.BasicProperties getProperties() {
+        return properties;
+    }
+
+    //Read-only view of the body (off-heap, or the wrapped "byte[]" for bodies over 1 MB), valid until ack/nack/release.
+    //Same view on each call, see "PooledBuffer.buffer()".
+    public ByteBuffer getBody() {
+        return body.buffer();
+    }
+
+    public void ack() throws IOException {
+        try {
+            channel.basicAck(envelope.getDeliveryTag(), false);
+        } finally {
+            body.release();
+        }
+    }
+
+    public void nack(boolean requeue) throws IOException {
+        try {
+            channel.basicNack(envelope.getDeliveryTag(), false, requeue);
+        } finally {
+            body.release();
+        }
+    }
+
+    //Only for auto ack consumers (nothing to ack, body still goes back to the pool).
+    public void release() {
+        body.release();
+    }
+}
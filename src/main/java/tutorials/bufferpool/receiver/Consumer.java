@@ -0,0 +1,49 @@
+package tutorials.bufferpool.receiver;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import tutorials.bufferpool.DeliveryBufferPool;
+import tutorials.bufferpool.PooledDeliverCallback;
+
+import java.nio.ByteBuffer;
+
+public class Consumer {
+    //Same queue with "helloword" tutorial, send messages with "tutorials.helloword.sender.Producer".
+    private static final String QUEUE_NAME = "test_queue";
+
+    public static void main(String[] args) throws Exception {
+        //1. Connection to Server (NOTE: Not in "TryWithResources" because continue listening queue)
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+        Connection connection = factory.newConnection();
+        Channel channel = connection.createChannel();
+
+        channel.queueDeclare(QUEUE_NAME, false, false, false, null);
+        channel.basicQos(100);
+
+        //2. One pool for the consumer, arenas are per thread inside.
+        DeliveryBufferPool pool = new DeliveryBufferPool();
+
+        //3. Body is a pooled direct "ByteBuffer" (no "new String(delivery.getBody(), "UTF-8")"), "ack()" gives it back to the pool.
+        PooledDeliverCallback callback = (consumerTag, delivery) -> {
+            ByteBuffer body = delivery.getBody();
+            int words = 0;
+            boolean inWord = false;
+            while (body.hasRemaining()) {
+                boolean letter = body.get() > ' ';
+                if (letter && !inWord) {
+                    words++;
+                }
+                inWord = letter;
+            }
+            System.out.println(" [x] Received " + body.limit() + " bytes, " + words + " word(s)");
+            delivery.ack();
+        };
+
+        //4. Manual ack, because the body is released with the ack.
+        channel.basicConsume(QUEUE_NAME, false, PooledDeliverCallback.adapt(channel, pool, callback), consumerTag -> { });
+
+        System.out.println(" [*] Waiting for messages. To exit press CTRL+C");
+    }
+}
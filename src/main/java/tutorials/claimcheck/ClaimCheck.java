@@ -0,0 +1,84 @@
+package tutorials.claimcheck;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Delivery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+//Publishes bodies bigger than "threshold" as a claim check (only a reference in the message headers), smaller bodies as usual.
+//Consumer side "body(delivery)" returns a "ByteBuffer" for BOTH cases, so handlers do not know (or care) where the bytes are.
+public class ClaimCheck {
+    static final String CLAIM_ID_HEADER = "x-claim-check-id";
+    static final String CLAIM_SIZE_HEADER = "x-claim-check-size";
+
+    private final PayloadStore store;
+    private final int threshold;
+
+    public ClaimCheck(PayloadStore store, int threshold) {
+        this.store = store;
+        this.threshold = threshold;
+    }
+
+    public void publish(Channel channel, String exchange, String routingKey, AMQP.BasicProperties props, ByteBuffer payload) throws IOException {
+        AMQP.BasicProperties properties = props != null ? props : new AMQP.BasicProperties();
+
+        //1. Small payload: normal message (one copy into "byte[]" is cheap at this size).
+        if (payload.remaining() <= threshold) {
+            byte[] body = new byte[payload.remaining()];
+            payload.duplicate().get(body);
+            channel.basicPublish(exchange, routingKey, properties, body);
+            return;
+        }
+
+        //2. Big payload: stored in the file store, message carries only the claim id and size (empty body).
+        String id = store.put(payload);
+
+        Map<String, Object> headers = new HashMap<>();
+        if (properties.getHeaders() != null) {
+            headers.putAll(properties.getHeaders());
+        }
+        headers.put(CLAIM_ID_HEADER, id);
+        headers.put(CLAIM_SIZE_HEADER, (long) payload.remaining());
+
+        try {
+            channel.basicPublish(exchange, routingKey, properties.builder().headers(headers).build(), new byte[0]);
+        } catch (IOException | RuntimeException e) {
+            //Nobody can claim it anymore.
+            store.delete(id);
+            throw e;
+        }
+    }
+
+    public static boolean isClaimCheck(Delivery delivery) {
+        Map<String, Object> headers = delivery.getProperties().getHeaders();
+        return headers != null && headers.containsKey(CLAIM_ID_HEADER);
+    }
+
+    //Read-only body view: mapped file for claim checks (zero-copy), wrapped "byte[]" for normal messages.
+    public ByteBuffer body(Delivery delivery) throws IOException {
+        if (!isClaimCheck(delivery)) {
+            return ByteBuffer.wrap(delivery.getBody()).asReadOnlyBuffer();
+        }
+        //Header values come back from the broker as "LongString", so "toString()" instead of a cast.
+        return store.open(delivery.getProperties().getHeaders().get(CLAIM_ID_HEADER).toString());
+    }
+
+    //Removes the stored payload, call AFTER the message is processed and acked.
+    //NOTE: only for single consumer queues (work queue), with fanout/topic more than one consumer reads the same claim check.
+    //A failed delete is only reported: the message is already acked, and on Windows a file can not be deleted while it is
+    //still mapped (the buffer is unmapped only when it is GC-ed).
+    public void release(Delivery delivery) {
+        if (isClaimCheck(delivery)) {
+            String id = delivery.getProperties().getHeaders().get(CLAIM_ID_HEADER).toString();
+            try {
+                store.delete(id);
+            } catch (IOException | RuntimeException e) {
+                System.out.println(" [!] Claim check payload '" + id + "' could not be deleted: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package tutorials.claimcheck;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import tutorials.perftest.GcStats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+public class ClaimCheckBenchmark {
+
+    //NOTES
+    //- Compares the tutorials' path ("byte[]" body + "new String(body, UTF-8)") with claim check + zero-copy "ByteBuffer" view,
+    //  for 1 MB to 100 MB payloads. Producer and consumer run in THIS JVM, against a local RabbitMQ node.
+    //- Reported per payload size: throughput (msg/s, MB/s), peak heap used (sampled every 5 ms) and GC count/time.
+    //- Run with a fixed heap for comparable numbers, for example: java -Xms1g -Xmx1g -Xlog:gc ... ClaimCheckBenchmark
+    //- The client refuses bodies bigger than 64 MB by default ("maxInboundMessageBodySize"), and the broker bigger than
+    //  128 MB ("max_message_size"); the inline path raises the client limit, claim check messages are always ~empty.
+
+    private static final int[] PAYLOAD_MEGABYTES = {1, 10, 50, 100};
+    private static final int MESSAGES_PER_SIZE = 20;
+    private static final String QUEUE_NAME = "claim_check_benchmark";
+
+    public static void main(String[] args) throws Exception {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+        factory.setMaxInboundMessageBodySize(128 * 1024 * 1024);
+
+        //Non-durable queue, so a temp directory store is fine here.
+        PayloadStore store = new PayloadStore(Path.of(System.getProperty("java.io.tmpdir"), "rabbitmq-claim-check-benchmark"));
+
+        System.out.format("%-12s %8s %10s %10s %14s %8s %10s%n", "mode", "size MB", "msg/s", "MB/s", "peak heap MB", "GCs", "GC ms");
+        for (int megabytes : PAYLOAD_MEGABYTES) {
+            for (boolean claimCheck : new boolean[]{false, true}) {
+                System.gc();
+                run(factory, store, megabytes, claimCheck);
+            }
+        }
+    }
+
+    static void run(ConnectionFactory factory, PayloadStore store, int megabytes, boolean useClaimCheck) throws Exception {
+        ByteBuffer payload = ByteBuffer.allocateDirect(megabytes * 1024 * 1024);
+        while (payload.hasRemaining()) {
+            payload.put((byte) ('a' + payload.position() % 26));
+        }
+        payload.flip();
+
+        // Inline mode: threshold never reached. Claim check mode: every payload is stored.
+        ClaimCheck claimCheck = new ClaimCheck(store, useClaimCheck ? 0 : Integer.MAX_VALUE);
+
+        try (Connection connection = factory.newConnection()) {
+            Channel consumerChannel = connection.createChannel();
+            consumerChannel.queueDeclare(QUEUE_NAME, false, false, true, null);
+            consumerChannel.queuePurge(QUEUE_NAME);
+            consumerChannel.basicQos(1);
+
+            //1. Consumer: tutorial path converts the body to a "String", claim check path reads the mapped buffer.
+            CountDownLatch done = new CountDownLatch(MESSAGES_PER_SIZE);
+            AtomicLong checksum = new AtomicLong();
+            consumerChannel.basicConsume(QUEUE_NAME, false, (consumerTag, delivery) -> {
+                CRC32 crc = new CRC32();
+                if (useClaimCheck) {
+                    crc.update(claimCheck.body(delivery));
+                } else {
+                    String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
+                    crc.update(message.getBytes(StandardCharsets.UTF_8));
+                }
+                checksum.addAndGet(crc.getValue());
+                consumerChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                claimCheck.release(delivery);
+                done.countDown();
+            }, consumerTag -> { });
+
+            //2. Heap sampling and GC counters.
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+            AtomicBoolean sampling = new AtomicBoolean(true);
+            Thread sampler = new Thread(() -> {
+                while (sampling.get()) {
+                    peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            sampler.setDaemon(true);
+            sampler.start();
+            long gcCountBefore = GcStats.gcCount();
+            long gcTimeBefore = GcStats.gcTime();
+
+            //3. Publishing (producer side has the payload outside of the heap in both modes).
+            long start = System.nanoTime();
+            try (Channel producerChannel = connection.createChannel()) {
+                for (int i = 0; i < MESSAGES_PER_SIZE; i++) {
+                    claimCheck.publish(producerChannel, "", QUEUE_NAME, null, payload);
+                }
+                if (!done.await(5, TimeUnit.MINUTES)) {
+                    throw new IllegalStateException("Messages could not be consumed in 5 minutes");
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            sampling.set(false);
+            sampler.join();
+
+            double seconds = elapsed / 1e9;
+            System.out.format("%-12s %8d %10.1f %10.1f %14d %8d %10d%n",
+                    useClaimCheck ? "claim-check" : "inline", megabytes,
+                    MESSAGES_PER_SIZE / seconds, MESSAGES_PER_SIZE * megabytes / seconds,
+                    peakHeap.get() / (1024 * 1024), GcStats.gcCount() - gcCountBefore, GcStats.gcTime() - gcTimeBefore);
+        }
+    }
+}
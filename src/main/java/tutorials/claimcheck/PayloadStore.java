@@ -0,0 +1,112 @@
+package tutorials.claimcheck;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+//Local file store for big message bodies ("claim check" pattern): the payload is written to a file and only its id is published.
+//- Writes go through "FileChannel" in fixed size chunks, so the payload is NEVER copied into one big "byte[]" (source can be
+//  a direct or mapped buffer, or another file).
+//- Reads return a read-only "MappedByteBuffer": pages are loaded by the OS on access, nothing is copied into the Java heap.
+//- Producer and consumer must see the SAME directory (same host, or a shared mount).
+//- Durable: a payload is forced to disk before it gets its final name (and before the message is published), so a
+//  persistent message in a durable queue does not outlive its payload after a crash.
+public class PayloadStore {
+    static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final String SUFFIX = ".payload";
+
+    private final Path directory;
+
+    public PayloadStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    //Default store directory, shared by the "claimcheck" sender and receiver: "-Dtutorials.claimcheck.dir=<dir>", or
+    //"~/.rabbitmq-tutorials/claim-check". NOT "java.io.tmpdir": it is often tmpfs or cleaned at boot, payloads of durable
+    //messages must survive a restart.
+    public static PayloadStore defaultStore() throws IOException {
+        String directory = System.getProperty("tutorials.claimcheck.dir");
+        return new PayloadStore(directory != null ? Path.of(directory)
+                : Path.of(System.getProperty("user.home"), ".rabbitmq-tutorials", "claim-check"));
+    }
+
+    //Stores the remaining bytes of "payload" (buffer position is not changed) and returns the claim id.
+    public String put(ByteBuffer payload) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path tmp = directory.resolve(id + ".tmp");
+
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer source = payload.duplicate();
+            int end = source.limit();
+            while (source.position() < end) {
+                //1. One chunk at a time, FileChannel may write less than requested.
+                source.limit(Math.min(end, source.position() + CHUNK_SIZE));
+                while (source.hasRemaining()) {
+                    out.write(source);
+                }
+            }
+            out.force(true);
+        }
+        //2. Renamed only when completely written (and on disk), so a consumer never maps a half written file.
+        Files.move(tmp, path(id), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return id;
+    }
+
+    //Stores a file's content, "transferTo" lets the OS copy it (no user space buffer at all).
+    public String put(Path source) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path tmp = directory.resolve(id + ".tmp");
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, Math.min(CHUNK_SIZE, size - position), out);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path(id), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return id;
+    }
+
+    //The rename itself is durable only when the directory entry is on disk too. Directories can not be opened on every OS
+    //(Windows), there the rename is left to the file system.
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //Not supported on this OS.
+        }
+    }
+
+    //Read-only zero-copy view of the payload. The mapping stays valid after the file is deleted (until the buffer is GC-ed).
+    //NOTE: one mapping is limited to 2 GB ("ByteBuffer" uses int positions).
+    public ByteBuffer open(String id) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(id), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Payload '" + id + "' is bigger than 2 GB, can not be mapped as one buffer");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    public void delete(String id) throws IOException {
+        Files.deleteIfExists(path(id));
+    }
+
+    private Path path(String id) {
+        //Ids come from message headers, so only plain names are accepted (no "../" path traversal).
+        if (id.isEmpty() || id.contains("/") || id.contains("\\") || id.contains("..")) {
+            throw new IllegalArgumentException("Invalid claim id '" + id + "'");
+        }
+        return directory.resolve(id + SUFFIX);
+    }
+}
@@ -0,0 +1,58 @@
+package tutorials.claimcheck.receiver;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import tutorials.claimcheck.ClaimCheck;
+import tutorials.claimcheck.PayloadStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+public class Consumer {
+    private static final String QUEUE_NAME = "claim_check_queue";
+
+    public static void main(String[] args) throws Exception {
+        //1. Connection to Server (NOTE: Not in "TryWithResources" because continue listening queue)
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+        Connection connection = factory.newConnection();
+        Channel channel = connection.createChannel();
+
+        channel.queueDeclare(QUEUE_NAME, true, false, false, null);
+        channel.basicQos(1);
+
+        ClaimCheck claimCheck = new ClaimCheck(PayloadStore.defaultStore(), Integer.MAX_VALUE);
+
+        //2. Callback method for consuming.
+        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
+            //2.1. Same "ByteBuffer" API for claim checks (mapped file, zero-copy) and normal messages.
+            //NOT "new String(delivery.getBody(), ...)": for a 100 MB payload that is 100 MB byte[] + 200 MB String on the heap.
+            ByteBuffer body;
+            try {
+                body = claimCheck.body(delivery);
+            } catch (IOException | IllegalArgumentException e) {
+                //Claim can not be resolved (file missing/unreadable, invalid id): requeue would fail again forever,
+                //so the message is rejected (dead-lettered when the queue has a dead letter exchange).
+                System.out.println(" [!] Claim check could not be resolved, message rejected: " + e);
+                channel.basicNack(delivery.getEnvelope().getDeliveryTag(), false, false);
+                return;
+            }
+
+            //2.2. Processing directly from the buffer ("CRC32.update(ByteBuffer)" reads a mapped buffer without copying it).
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            System.out.format(" [x] Received %,d bytes (claim check: %b, crc32: %08x)%n",
+                    body.capacity(), ClaimCheck.isClaimCheck(delivery), crc.getValue());
+
+            //2.3. Ack first, then the stored payload can be removed.
+            channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+            claimCheck.release(delivery);
+        };
+
+        channel.basicConsume(QUEUE_NAME, false, deliverCallback, consumerTag -> { });
+        System.out.println(" [*] Waiting for messages. To exit press CTRL+C");
+    }
+}
@@ -0,0 +1,49 @@
+package tutorials.claimcheck.sender;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.MessageProperties;
+import tutorials.claimcheck.ClaimCheck;
+import tutorials.claimcheck.PayloadStore;
+
+import java.nio.ByteBuffer;
+
+public class Producer {
+    private static final String QUEUE_NAME = "claim_check_queue";
+
+    // Bodies bigger than this are published as claim check.
+    private static final int THRESHOLD = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int payloadMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+        //1. Connection to Server
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+
+        try (Connection connection = factory.newConnection();
+            Channel channel = connection.createChannel()) {
+
+            //2. DURABLE queue declaration. Claim check files survive a restart too: they are forced to disk before publishing,
+            //and the default store is NOT in the temp directory (see "PayloadStore.defaultStore").
+            channel.queueDeclare(QUEUE_NAME, true, false, false, null);
+
+            //3. Big payload in a DIRECT buffer (outside of the Java heap), like a payload read from a socket or a file.
+            ByteBuffer payload = ByteBuffer.allocateDirect(payloadMegabytes * 1024 * 1024);
+            while (payload.hasRemaining()) {
+                payload.put((byte) (payload.position() % 251));
+            }
+            payload.flip();
+
+            //4. Payload goes to the file store, message has ONLY the claim id (in headers) and an empty body.
+            ClaimCheck claimCheck = new ClaimCheck(PayloadStore.defaultStore(), THRESHOLD);
+            claimCheck.publish(channel, "", QUEUE_NAME, MessageProperties.PERSISTENT_BASIC, payload);
+            System.out.println(" [x] Sent " + payloadMegabytes + " MB payload as claim check");
+
+            //5. Small payload under the threshold is a normal message.
+            claimCheck.publish(channel, "", QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN, ByteBuffer.wrap("Small message".getBytes("UTF-8")));
+            System.out.println(" [x] Sent small message inline");
+        }
+    }
+}
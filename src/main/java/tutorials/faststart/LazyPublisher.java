@@ -0,0 +1,173 @@
+package tutorials.faststart;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ReturnCallback;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+//Publisher for short-lived senders ("fast start"):
+//- Nothing happens in the constructor: connection, channel and topology declaration are done on the FIRST "publish".
+//- Declarations are described by a text ("exchange topic_logs topic"). Their fingerprint (with host/port/vhost) is the
+//  name of a cache file, when it exists on the next run the declarations are SKIPPED (saves one round trip per declaration).
+//  One file per declaration set, so senders with different declarations on the same node do not overwrite each other.
+//- Stale cache (exchange deleted on the broker): publishing to it closes the channel with 404 (NOT_FOUND), that removes the
+//  cached fingerprint, so the NEXT run declares again. The loss is NOT silent: when declarations were skipped the channel
+//  is in confirm mode and "close()" waits for the confirms, a 404 (or nack) makes it throw (sender exits with an error).
+//  Costs one round trip at close, instead of one per declaration at start.
+//  A returned "mandatory" message does NOT clear the cache: it only means no queue is bound (no consumer running), which is
+//  normal for a short-lived sender of the "topics" tutorial.
+public class LazyPublisher implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Declaration {
+        void declare(Channel channel) throws IOException;
+    }
+
+    private static final long CONFIRM_TIMEOUT_MS = 5_000;
+    private static final Path CACHE_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "rabbitmq-topology-cache");
+
+    private final ConnectionFactory factory;
+    private final List<String> descriptions = new ArrayList<>();
+    private final List<Declaration> declarations = new ArrayList<>();
+    private Connection connection;
+    private Channel channel;
+    private boolean declarationSkipped;
+    private ReturnCallback returnCallback;
+
+    public LazyPublisher(ConnectionFactory factory) {
+        this.factory = factory;
+    }
+
+    //"description" MUST change when the declaration changes (it is the only input of the fingerprint).
+    public LazyPublisher declare(String description, Declaration declaration) {
+        descriptions.add(description);
+        declarations.add(declaration);
+        return this;
+    }
+
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) throws IOException, TimeoutException {
+        publish(exchange, routingKey, false, props, body);
+    }
+
+    //Same "mandatory" meaning with "Channel.basicPublish": the caller handles returns ("returnListener(...)" before publishing).
+    public void publish(String exchange, String routingKey, boolean mandatory, AMQP.BasicProperties props, byte[] body)
+            throws IOException, TimeoutException {
+        if (channel == null) {
+            open();
+        }
+        channel.basicPublish(exchange, routingKey, mandatory, props, body);
+    }
+
+    //Listener for returned "mandatory" messages, added when the channel is opened.
+    public LazyPublisher returnListener(ReturnCallback returnCallback) {
+        this.returnCallback = returnCallback;
+        return this;
+    }
+
+    //True when the cached fingerprint matched on the first publish.
+    public boolean isDeclarationSkipped() {
+        return declarationSkipped;
+    }
+
+    private void open() throws IOException, TimeoutException {
+        //1. Connection and channel, only now.
+        connection = factory.newConnection();
+        channel = connection.createChannel();
+
+        if (returnCallback != null) {
+            channel.addReturnListener(returnCallback);
+        }
+        Path cacheFile = cacheFile();
+        //1.1. Publishing to a deleted exchange closes the channel with 404 (NOT_FOUND): the cached topology is stale.
+        channel.addShutdownListener(cause -> {
+            if (!cause.isInitiatedByApplication() && cause.getReason() instanceof AMQP.Channel.Close close
+                    && close.getReplyCode() == AMQP.NOT_FOUND) {
+                clearCache(cacheFile, close.getReplyText());
+            }
+        });
+
+        //2. Declarations only when the fingerprint changed (or first run). Skipped -> confirms, so a stale cache is noticed.
+        if (Files.exists(cacheFile)) {
+            declarationSkipped = true;
+            channel.confirmSelect();
+            return;
+        }
+        for (Declaration declaration : declarations) {
+            declaration.declare(channel);
+        }
+        Files.createDirectories(CACHE_DIRECTORY);
+        //Content is only for people looking at the cache directory.
+        Files.writeString(cacheFile, String.join("\n", descriptions));
+    }
+
+    private static void clearCache(Path cacheFile, String reason) {
+        System.out.println(" [!] " + reason + ", topology cache cleared: " + cacheFile);
+        deleteCache(cacheFile);
+    }
+
+    //Removes this factory's cached fingerprint (the next run declares again).
+    public void clearCache() {
+        deleteCache(cacheFile());
+    }
+
+    private static void deleteCache(Path cacheFile) {
+        try {
+            Files.deleteIfExists(cacheFile);
+        } catch (IOException e) {
+            System.out.println(" [!] Topology cache could not be cleared: " + e);
+        }
+    }
+
+    private Path cacheFile() {
+        String fingerprint = sha256(factory.getHost() + ":" + factory.getPort() + factory.getVirtualHost() + "\n"
+                + String.join("\n", descriptions));
+        return CACHE_DIRECTORY.resolve(fingerprint + ".fingerprint");
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Throws when declarations were skipped and a published message was not confirmed (stale cache, the message is lost).
+    @Override
+    public void close() throws IOException {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (declarationSkipped) {
+                channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT_MS);
+            }
+        } catch (ShutdownSignalException e) {
+            throw new IOException("Published message(s) lost, channel closed by the broker: " + e.getMessage(), e);
+        } catch (TimeoutException e) {
+            throw new IOException("Published message(s) not confirmed in " + CONFIRM_TIMEOUT_MS + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for publish confirms");
+        } finally {
+            if (connection.isOpen()) {
+                connection.close();
+            }
+        }
+    }
+}
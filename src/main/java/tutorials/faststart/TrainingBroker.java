@@ -0,0 +1,108 @@
+package tutorials.faststart;
+
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.LongStringHelper;
+import com.rabbitmq.client.impl.Method;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+//In-process AMQP 0-9-1 stub for the AppCDS training run ("Producer train"), so the archive gets the classes of the REAL
+//connect -> declare -> publish path of the client without a RabbitMQ node.
+//- Answers the connection handshake, channel open/close, exchange declare, confirm select and connection close;
+//  publishes are swallowed (and acked on confirm channels).
+//- NOT a broker: nothing is routed or stored, any other method is ignored (a client waiting for its reply would hang).
+public class TrainingBroker implements AutoCloseable {
+    private static final int FRAME_MAX = 131_072;
+
+    private final ServerSocket serverSocket;
+
+    //Listens on a free loopback port, see "port()".
+    public TrainingBroker() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "training-broker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread connection = new Thread(() -> serve(socket), "training-broker-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return; // Closed.
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            //1. Protocol header "AMQP 0 0 9 1", then the server starts the handshake.
+            in.readFully(new byte[8]);
+            send(out, 0, new AMQImpl.Connection.Start(0, 9, Map.of("product", "training-broker"),
+                    LongStringHelper.asLongString("PLAIN"), LongStringHelper.asLongString("en_US")));
+
+            //2. Methods with a reply are answered, content frames (publish header and body) and heartbeats are skipped.
+            //Confirm channels: number of publishes so far (the delivery tag of the next ack).
+            Map<Integer, Long> confirmChannels = new HashMap<>();
+            while (true) {
+                Frame frame = Frame.readFrom(in, FRAME_MAX);
+                if (frame == null || frame.type != 1) { // 1: method frame
+                    continue;
+                }
+                Method method = AMQImpl.readMethodFrom(frame.getInputStream());
+                if (method instanceof AMQImpl.Connection.StartOk) {
+                    send(out, 0, new AMQImpl.Connection.Tune(2047, FRAME_MAX, 0));
+                } else if (method instanceof AMQImpl.Connection.Open) {
+                    send(out, 0, new AMQImpl.Connection.OpenOk(""));
+                } else if (method instanceof AMQImpl.Channel.Open) {
+                    send(out, frame.channel, new AMQImpl.Channel.OpenOk(LongStringHelper.asLongString("")));
+                } else if (method instanceof AMQImpl.Exchange.Declare declare && !declare.getNowait()) {
+                    send(out, frame.channel, new AMQImpl.Exchange.DeclareOk());
+                } else if (method instanceof AMQImpl.Confirm.Select select) {
+                    confirmChannels.put(frame.channel, 0L);
+                    if (!select.getNowait()) {
+                        send(out, frame.channel, new AMQImpl.Confirm.SelectOk());
+                    }
+                } else if (method instanceof AMQImpl.Basic.Publish && confirmChannels.containsKey(frame.channel)) {
+                    send(out, frame.channel, new AMQImpl.Basic.Ack(confirmChannels.merge(frame.channel, 1L, Long::sum), false));
+                } else if (method instanceof AMQImpl.Channel.Close) {
+                    send(out, frame.channel, new AMQImpl.Channel.CloseOk());
+                } else if (method instanceof AMQImpl.Connection.Close) {
+                    send(out, 0, new AMQImpl.Connection.CloseOk());
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            //Client gone, nothing to clean up.
+        }
+    }
+
+    private static void send(DataOutputStream out, int channel, Method method) throws IOException {
+        method.toFrame(channel).writeTo(out);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
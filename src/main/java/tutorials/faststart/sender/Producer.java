@@ -0,0 +1,80 @@
+package tutorials.faststart.sender;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import tutorials.faststart.LazyPublisher;
+import tutorials.faststart.TrainingBroker;
+
+import java.time.Duration;
+import java.time.Instant;
+
+public class Producer {
+    private static final String EXCHANGE_NAME = "topic_logs";
+
+    //NOTES
+    //- Same message with "topics" tutorial sender, modes for comparing "time to first publish":
+    //  "eager": like the tutorials (connect, declare, publish). "lazy" (default): "LazyPublisher", declaration skipped when cached.
+    //  "train": eager, lazy (declaring) and lazy again (cached: declarations skipped, confirms) against an in-process
+    //  "TrainingBroker" (no RabbitMQ node needed), used by the "appcds" profile.
+    //- Time is measured from JVM start (process start time) and from "main" start, JVM startup is the first part of it.
+    //- With the "appcds" maven profile ("mvn -Pappcds package") a class data sharing archive for this class is created, run with:
+    //  java -XX:SharedArchiveFile=target/faststart.jsa -cp target/rabbitmq-1.0-SNAPSHOT.jar tutorials.faststart.sender.Producer
+    //  and without "-XX:SharedArchiveFile" for the "before" numbers ("train" mode compares them without a node).
+
+    public static void main(String[] argv) throws Exception {
+        long mainStart = System.nanoTime();
+        String mode = argv.length > 0 ? argv[0] : "lazy";
+
+        //1. Connection factory only (NO connection yet in lazy mode).
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+
+        if (mode.equals("train")) {
+            //1.1. Both paths against the stub on a free loopback port, so all of their classes are loaded.
+            try (TrainingBroker broker = new TrainingBroker()) {
+                factory.setPort(broker.port());
+                publishEager(factory, mainStart);
+                publishLazy(factory, System.nanoTime());
+                publishLazy(factory, System.nanoTime()).clearCache(); // Port is random, the fingerprint is of no use later.
+            }
+        } else if (mode.equals("eager")) {
+            publishEager(factory, mainStart);
+        } else {
+            publishLazy(factory, mainStart);
+        }
+    }
+
+    //2. Tutorial way: connection and declaration before any work.
+    private static void publishEager(ConnectionFactory factory, long mainStart) throws Exception {
+        String message = "From Root kernel";
+        try (Connection connection = factory.newConnection();
+            Channel channel = connection.createChannel()) {
+            channel.exchangeDeclare(EXCHANGE_NAME, "topic");
+            channel.basicPublish(EXCHANGE_NAME, "root.kern.err", null, message.getBytes("UTF-8"));
+            report("eager", mainStart, false);
+        }
+        System.out.println(" [x] Sent '" + message + "'");
+    }
+
+    //3. Fast start: connection + declaration happen inside the first "publish", declaration skipped if cached.
+    private static LazyPublisher publishLazy(ConnectionFactory factory, long mainStart) throws Exception {
+        String message = "From Root kernel";
+        try (LazyPublisher publisher = new LazyPublisher(factory)
+                .declare("exchange " + EXCHANGE_NAME + " topic", channel -> channel.exchangeDeclare(EXCHANGE_NAME, "topic"))) {
+            publisher.publish(EXCHANGE_NAME, "root.kern.err", null, message.getBytes("UTF-8"));
+            report("lazy", mainStart, publisher.isDeclarationSkipped());
+            System.out.println(" [x] Sent '" + message + "'");
+            return publisher;
+        }
+    }
+
+    private static void report(String mode, long mainStart, boolean declarationSkipped) {
+        long sinceMain = System.nanoTime() - mainStart;
+        Duration sinceJvmStart = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()))
+                .orElse(Duration.ZERO);
+        System.out.format(" [!] %s: time to first publish %d ms from JVM start, %d ms from main (declaration skipped: %b)%n",
+                mode, sinceJvmStart.toMillis(), Duration.ofNanos(sinceMain).toMillis(), declarationSkipped);
+    }
+}
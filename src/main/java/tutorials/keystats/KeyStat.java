@@ -0,0 +1,41 @@
+package tutorials.keystats;
+
+import java.beans.ConstructorProperties;
+
+//Statistics of ONE routing key in a top-K report (counts are Count-Min estimates, never lower than the real value).
+public class KeyStat {
+    private final String routingKey;
+    private final long deliveries;
+    private final double ratePerSecond;
+    private final long bytes;
+    private final double avgProcessingMicros;
+
+    @ConstructorProperties({"routingKey", "deliveries", "ratePerSecond", "bytes", "avgProcessingMicros"})
+    public KeyStat(String routingKey, long deliveries, double ratePerSecond, long bytes, double avgProcessingMicros) {
+        this.routingKey = routingKey;
+        this.deliveries = deliveries;
+        this.ratePerSecond = ratePerSecond;
+        this.bytes = bytes;
+        this.avgProcessingMicros = avgProcessingMicros;
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    public long getDeliveries() {
+        return deliveries;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getAvgProcessingMicros() {
+        return avgProcessingMicros;
+    }
+}
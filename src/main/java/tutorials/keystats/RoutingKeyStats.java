@@ -0,0 +1,292 @@
+package tutorials.keystats;
+
+import com.rabbitmq.client.DeliverCallback;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//Per routing key statistics (deliveries, bytes, processing time) with BOUNDED memory, for high cardinality topics.
+//- Count-Min sketch: "depth" rows x "width" counters for each metric. A key's value is the MIN of its counters over the
+//  rows (never under-estimated, over-estimated only by hash collisions). Memory does not depend on the key count.
+//- Heavy hitter candidates: a fixed size table of keys FOR EACH STRIPE; a new key takes a slot when it is empty or when its
+//  count in that stripe is higher than the current slot owner's. Frequent keys stay, rare keys are pushed out.
+//  Per stripe, because counts are only comparable within one stripe: a key heavy on another consumer's stripe would look
+//  light here and be pushed out by any key. The report takes the keys of all tables and ranks them by their total counts.
+//- Recording is lock-free. The sketch has "stripes" copies (summed when reported):
+//  - "recording(callback)"/"recorder()" take an EXCLUSIVE stripe: deliveries of one channel never run at the same time,
+//    so the stripe has a single writer and plain (release) writes are enough, no atomic read-modify-write at all.
+//  - "record(...)" (and recorders after the exclusive stripes are used up) add atomically to the last, shared stripe.
+//  The 3 metrics of a counter are side by side, so one row update touches one cache line.
+//  A candidate slot needs one CAS, only when the slot changes owner.
+//- Top-K report ("getTopKeys") and rates are computed on the reporting/JMX thread, NOT on the delivery thread.
+public class RoutingKeyStats implements RoutingKeyStatsMXBean {
+    private static final long[] ROW_SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL, 0xBF58476D1CE4E5B9L};
+
+    private final String name;
+    private final int topK;
+    private final int depth;
+    private final int width;
+    private final int stripes;
+    // [stripe][row][column][count, bytes, nanos] flattened.
+    private final AtomicLongArray cells;
+    //[stripe][slot] flattened.
+    private final AtomicReferenceArray<String> candidates;
+    private final int candidateSlots;
+    private final AtomicInteger nextExclusiveStripe = new AtomicInteger();
+
+    //Previous report's counts, for rates (only reporter/JMX threads, guarded by "this").
+    private Map<String, Long> lastCounts = new HashMap<>();
+    private long lastReportNanos = System.nanoTime();
+    private ScheduledExecutorService reporter;
+
+    private static final int METRICS = 3;
+    private static final int COUNT = 0;
+    private static final int BYTES = 1;
+    private static final int NANOS = 2;
+
+    //Defaults: top 10, 4 x 1024 sketch, 4 stripes = 3 exclusive + 1 shared (4 x 4 x 1024 x 3 longs = 384 KB),
+    //64 candidate slots per stripe.
+    public RoutingKeyStats(String name) {
+        this(name, 10, 4, 1024, 4);
+    }
+
+    public RoutingKeyStats(String name, int topK, int depth, int width, int stripes) {
+        if (topK < 1 || depth < 1 || depth > ROW_SEEDS.length || Integer.bitCount(width) != 1 || stripes < 1) {
+            throw new IllegalArgumentException("topK must be positive, depth 1.." + ROW_SEEDS.length
+                    + ", width a power of two, stripes positive");
+        }
+        this.name = name;
+        this.topK = topK;
+        this.depth = depth;
+        this.width = width;
+        this.stripes = stripes;
+        this.cells = new AtomicLongArray(stripes * depth * width * METRICS);
+        this.candidateSlots = Math.max(2, Integer.highestOneBit(topK * 4 - 1) << 1);
+        this.candidates = new AtomicReferenceArray<>(candidateSlots * stripes);
+    }
+
+    //Safe from any thread at any time (shared stripe, atomic adds).
+    public void record(String routingKey, int bodySize, long processingNanos) {
+        record(stripes - 1, false, routingKey, bodySize, processingNanos);
+    }
+
+    //Recorder for ONE consumer (or any single thread at a time): exclusive stripe while there is one left.
+    public Recorder recorder() {
+        int stripe = nextExclusiveStripe.getAndIncrement();
+        return stripe < stripes - 1 ? new Recorder(stripe, true) : new Recorder(stripes - 1, false);
+    }
+
+    //Wraps a "DeliverCallback": measures its processing time and records it with the delivery's routing key and body size.
+    //Use one wrapper per consumer, the client never runs two deliveries of the same channel at the same time.
+    public DeliverCallback recording(DeliverCallback delegate) {
+        Recorder recorder = recorder();
+        return (consumerTag, delivery) -> {
+            long start = System.nanoTime();
+            try {
+                delegate.handle(consumerTag, delivery);
+            } finally {
+                recorder.record(delivery.getEnvelope().getRoutingKey(), delivery.getBody().length, System.nanoTime() - start);
+            }
+        };
+    }
+
+    public class Recorder {
+        private final int stripe;
+        private final boolean exclusive;
+
+        private Recorder(int stripe, boolean exclusive) {
+            this.stripe = stripe;
+            this.exclusive = exclusive;
+        }
+
+        public void record(String routingKey, int bodySize, long processingNanos) {
+            RoutingKeyStats.this.record(stripe, exclusive, routingKey, bodySize, processingNanos);
+        }
+    }
+
+    private void record(int stripe, boolean exclusive, String routingKey, int bodySize, long processingNanos) {
+        int hash = routingKey.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = index(stripe, hash, row);
+            long count;
+            if (exclusive) {
+                //Single writer: read + "lazySet" (release store, readers see it shortly after), no locked instruction.
+                count = cells.get(index + COUNT) + 1;
+                cells.lazySet(index + COUNT, count);
+                cells.lazySet(index + BYTES, cells.get(index + BYTES) + bodySize);
+                cells.lazySet(index + NANOS, cells.get(index + NANOS) + processingNanos);
+            } else {
+                count = cells.incrementAndGet(index + COUNT);
+                cells.addAndGet(index + BYTES, bodySize);
+                cells.addAndGet(index + NANOS, processingNanos);
+            }
+            estimate = Math.min(estimate, count);
+        }
+        offerCandidate(routingKey, hash, stripe, estimate);
+    }
+
+    //Candidate table of the caller's stripe: "estimate" and the owners' counts come from that stripe, cheap and comparable.
+    private void offerCandidate(String key, int hash, int stripe, long estimate) {
+        //Two possible slots for each key, so two heavy keys with the same slot do not push each other out.
+        int mask = candidateSlots - 1;
+        int first = stripe * candidateSlots + (mix(hash, ROW_SEEDS[0]) & mask);
+        int second = stripe * candidateSlots + (mix(hash, ROW_SEEDS[1]) & mask);
+        String firstOwner = candidates.get(first);
+        String secondOwner = candidates.get(second);
+        if (key.equals(firstOwner) || key.equals(secondOwner)) {
+            return; // Common case for a heavy key: two reads, no write.
+        }
+        if (firstOwner == null && candidates.compareAndSet(first, null, key)) {
+            return;
+        }
+        if (secondOwner == null && candidates.compareAndSet(second, null, key)) {
+            return;
+        }
+
+        //Both slots taken by other keys: the weaker owner is replaced if this key is heavier.
+        firstOwner = candidates.get(first);
+        secondOwner = candidates.get(second);
+        long firstCount = firstOwner == null ? 0 : stripeCount(stripe, firstOwner.hashCode());
+        long secondCount = secondOwner == null ? 0 : stripeCount(stripe, secondOwner.hashCode());
+        int slot = firstCount <= secondCount ? first : second;
+        String owner = slot == first ? firstOwner : secondOwner;
+        if (estimate > Math.min(firstCount, secondCount)) {
+            candidates.compareAndSet(slot, owner, key); // Lost race: another thread changed the slot, fine.
+        }
+    }
+
+    private long stripeCount(int stripe, int hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, cells.get(index(stripe, hash, row) + COUNT));
+        }
+        return min;
+    }
+
+    //Count-Min over the SUM of the stripes (same hashing in every stripe, so the sum is the sketch of all deliveries).
+    private long estimate(int hash, int metric) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            long sum = 0;
+            for (int stripe = 0; stripe < stripes; stripe++) {
+                sum += cells.get(index(stripe, hash, row) + metric);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private int index(int stripe, int hash, int row) {
+        return ((stripe * depth + row) * width + (mix(hash, ROW_SEEDS[row]) & (width - 1))) * METRICS;
+    }
+
+    private static int mix(int hash, long seed) {
+        long h = (hash ^ seed) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    //Top-K keys by (estimated) delivery count, with rate since the previous call (reporter or JMX).
+    //A key that was not a candidate in the previous call gets its rate from its whole count.
+    @Override
+    public synchronized List<KeyStat> getTopKeys() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < candidates.length(); i++) {
+            String key = candidates.get(i);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+
+        List<KeyStat> stats = new ArrayList<>();
+        Map<String, Long> currentCounts = new HashMap<>();
+        for (String key : keys) {
+            int hash = key.hashCode();
+            long count = estimate(hash, COUNT);
+            currentCounts.put(key, count);
+            double rate = (count - lastCounts.getOrDefault(key, 0L)) / seconds;
+            stats.add(new KeyStat(key, count, rate, estimate(hash, BYTES), estimate(hash, NANOS) / Math.max(1, count) / 1_000.0));
+        }
+        stats.sort((a, b) -> Long.compare(b.getDeliveries(), a.getDeliveries()));
+
+        lastCounts = currentCounts;
+        lastReportNanos = now;
+        return new ArrayList<>(stats.subList(0, Math.min(topK, stats.size())));
+    }
+
+    //Every delivery adds to exactly one counter of each row, so the sum of row 0 is the exact total.
+    @Override
+    public long getTotalDeliveries() {
+        return rowSum(COUNT);
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return rowSum(BYTES);
+    }
+
+    private long rowSum(int metric) {
+        long sum = 0;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            int rowStart = stripe * depth * width * METRICS;
+            for (int column = 0; column < width; column++) {
+                sum += cells.get(rowStart + column * METRICS + metric);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public long getSketchMemoryBytes() {
+        return (long) cells.length() * Long.BYTES + (long) candidates.length() * Integer.BYTES;
+    }
+
+    //JMX view: "tutorials:type=RoutingKeyStats,name=<name>" (jconsole / VisualVM -> MBeans).
+    public RoutingKeyStats registerMBean() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("tutorials:type=RoutingKeyStats,name=" + ObjectName.quote(name)));
+        return this;
+    }
+
+    //Prints the top-K table every "periodSeconds" (daemon thread, stops with the JVM).
+    public synchronized RoutingKeyStats startReporting(long periodSeconds) {
+        if (reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "routing-key-stats-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(this::printReport, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        }
+        return this;
+    }
+
+    void printReport() {
+        List<KeyStat> top = getTopKeys();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(" [!] Top %d routing keys of '%s' (%,d deliveries, %,d bytes in total)%n",
+                top.size(), name, getTotalDeliveries(), getTotalBytes()));
+        for (KeyStat stat : top) {
+            report.append(String.format("     %-30s %,12d msg %,10.1f msg/s %,14d bytes %,10.1f us/msg%n",
+                    stat.getRoutingKey(), stat.getDeliveries(), stat.getRatePerSecond(), stat.getBytes(), stat.getAvgProcessingMicros()));
+        }
+        System.out.print(report);
+    }
+}
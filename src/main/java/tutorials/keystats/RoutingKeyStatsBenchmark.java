@@ -0,0 +1,115 @@
+package tutorials.keystats;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class RoutingKeyStatsBenchmark {
+
+    //NOTES
+    //- Measures the cost of "RoutingKeyStats.record" per delivery (no RabbitMQ node needed): N threads record keys from a
+    //  skewed (Zipf like) distribution over a high cardinality key set, like "root.kern.err" style topic keys.
+    //- Prints ns per record for the shared stripe ("record", atomic adds) and for exclusive recorders ("recorder()", one per
+    //  thread like one per consumer), the sketch memory, and the top-K keys next to their EXACT counts.
+    //- Compare with the baseline line (same loop, no recording) for the pure overhead.
+    //- Usage: RoutingKeyStatsBenchmark [threads] [records per thread] [distinct keys]
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int recordsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int distinctKeys = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        //1. Keys and a pre-generated skewed sequence (generation is not measured).
+        String[] keys = new String[distinctKeys];
+        for (int i = 0; i < distinctKeys; i++) {
+            keys[i] = "host" + i + ".kern." + (i % 3 == 0 ? "err" : "info");
+        }
+        int[][] sequences = new int[threads][recordsPerThread];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < recordsPerThread; i++) {
+                sequences[t][i] = skewedIndex(distinctKeys);
+            }
+        }
+
+        //2. Warm-up (JIT), then the measured runs.
+        for (int i = 0; i < 3; i++) {
+            run(null, false, keys, sequences, 1);
+            run(new RoutingKeyStats("warmup"), false, keys, sequences, 1);
+            run(new RoutingKeyStats("warmup"), true, keys, sequences, 1);
+        }
+        double baseline = run(null, false, keys, sequences, 1);
+        double shared = run(new RoutingKeyStats("shared"), false, keys, sequences, 1);
+        double exclusive = run(new RoutingKeyStats("exclusive"), true, keys, sequences, 1);
+        RoutingKeyStats stats = new RoutingKeyStats("multi");
+        double multiThread = run(stats, true, keys, sequences, threads);
+
+        System.out.format(" [x] baseline loop: %.1f ns/delivery%n", baseline);
+        System.out.format(" [x] record() shared stripe: %.1f ns/delivery, recorder() exclusive stripe: %.1f ns/delivery (1 thread)%n", shared, exclusive);
+        System.out.format(" [x] recorder() with %d threads: %.1f ns/delivery (each thread, %d CPUs)%n",
+                threads, multiThread, Runtime.getRuntime().availableProcessors());
+        System.out.format(" [x] %,d distinct keys, sketch memory %,d bytes (independent of key count)%n", distinctKeys, stats.getSketchMemoryBytes());
+
+        //3. Accuracy: estimated top-K vs exact counts.
+        Map<String, Long> exact = new HashMap<>();
+        for (int[] sequence : sequences) {
+            for (int index : sequence) {
+                exact.merge(keys[index], 1L, Long::sum);
+            }
+        }
+        List<KeyStat> top = stats.getTopKeys();
+        System.out.format("     %-24s %14s %14s%n", "routing key", "estimated", "exact");
+        for (KeyStat stat : top) {
+            System.out.format("     %-24s %,14d %,14d%n", stat.getRoutingKey(), stat.getDeliveries(), exact.getOrDefault(stat.getRoutingKey(), 0L));
+        }
+    }
+
+    //Returns ns per record for each thread. "stats" null -> baseline (only the loop and the key lookup).
+    private static double run(RoutingKeyStats stats, boolean recorders, String[] keys, int[][] sequences, int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] elapsed = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers[t] = new Thread(() -> {
+                int[] sequence = sequences[index];
+                RoutingKeyStats.Recorder recorder = stats != null && recorders ? stats.recorder() : null;
+                long hashes = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long begin = System.nanoTime();
+                for (int keyIndex : sequence) {
+                    if (recorder != null) {
+                        recorder.record(keys[keyIndex], 128, 1_000);
+                    } else if (stats != null) {
+                        stats.record(keys[keyIndex], 128, 1_000);
+                    } else {
+                        hashes += keys[keyIndex].hashCode();
+                    }
+                }
+                elapsed[index] = System.nanoTime() - begin;
+                if (hashes == 42) {
+                    System.out.print(""); // Keeps the baseline loop from being removed by the JIT.
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += elapsed[t];
+        }
+        return (double) total / threads / sequences[0].length;
+    }
+
+    //Zipf like: index i is chosen with probability ~ 1 / (i + 1).
+    private static int skewedIndex(int size) {
+        double u = ThreadLocalRandom.current().nextDouble();
+        return (int) Math.min(size - 1, Math.floor(Math.pow(size + 1, u)) - 1);
+    }
+}
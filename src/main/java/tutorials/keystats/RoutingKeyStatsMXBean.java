@@ -0,0 +1,14 @@
+package tutorials.keystats;
+
+import java.util.List;
+
+//JMX view of "RoutingKeyStats" (MXBean: "KeyStat" list is shown as composite data, no custom classes needed in jconsole).
+public interface RoutingKeyStatsMXBean {
+    List<KeyStat> getTopKeys();
+
+    long getTotalDeliveries();
+
+    long getTotalBytes();
+
+    long getSketchMemoryBytes();
+}
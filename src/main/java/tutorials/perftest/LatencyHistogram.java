@@ -0,0 +1,82 @@
+package tutorials.perftest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Lock-free latency histogram (microsecond resolution) for recording from many consumer threads at once.
+//Values under 64 us get their own bucket, bigger values are grouped in 32 sub buckets per power of two (~3% precision).
+class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; // ~12 days in microseconds, more than enough.
+
+    private final AtomicLongArray buckets = new AtomicLongArray(LINEAR_BUCKETS + (MAX_EXPONENT - 5) * SUB_BUCKETS);
+
+    void record(long micros) {
+        buckets.incrementAndGet(indexOf(Math.max(0, micros)));
+    }
+
+    //Copies the current counts into "target" and resets this histogram (for interval histograms).
+    //A value recorded concurrently lands either in this interval or in the next one, never lost.
+    void drainTo(LatencyHistogram target) {
+        for (int i = 0; i < buckets.length(); i++) {
+            long count = buckets.getAndSet(i, 0);
+            if (count != 0) {
+                target.buckets.addAndGet(i, count);
+            }
+        }
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length(); i++) {
+            long count = other.buckets.get(i);
+            if (count != 0) {
+                buckets.addAndGet(i, count);
+            }
+        }
+    }
+
+    long count() {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    //Returns the latency (us) at the given percentile (0-100), or 0 when nothing recorded.
+    long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        return valueOf(buckets.length() - 1);
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        int subBucket = (int) Math.min(SUB_BUCKETS - 1, (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS);
+        return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + subBucket;
+    }
+
+    //Upper bound of the bucket, so reported percentiles never under-estimate the latency.
+    private static long valueOf(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 6;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,106 @@
+package tutorials.perftest;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+//Counters of ONE topology run. Producers/consumers only increment, the reporter thread takes a "Sample" every second.
+class Metrics {
+    final LongAdder published = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder receivedBytes = new LongAdder();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    private long lastPublished;
+    private long lastReceived;
+    private long lastReceivedBytes;
+    private long lastSampleNanos;
+    private final long startNanos;
+
+    Metrics() {
+        startNanos = System.nanoTime();
+        lastSampleNanos = startNanos;
+    }
+
+    //"sentNanos" is the "System.nanoTime()" written in the message body by the producer.
+    void recordReceived(long sentNanos, int bodySize) {
+        received.increment();
+        receivedBytes.add(bodySize);
+        intervalLatency.record((System.nanoTime() - sentNanos) / 1_000);
+    }
+
+    //Only called from the reporter thread.
+    Sample sample(Topology topology) {
+        long now = System.nanoTime();
+        long publishedNow = published.sum();
+        long receivedNow = received.sum();
+        long receivedBytesNow = receivedBytes.sum();
+
+        LatencyHistogram interval = new LatencyHistogram();
+        intervalLatency.drainTo(interval);
+        totalLatency.add(interval);
+
+        double seconds = Math.max(1e-9, (now - lastSampleNanos) / 1e9);
+        Sample sample = new Sample(topology,
+                (now - startNanos) / 1e9,
+                (publishedNow - lastPublished) / seconds,
+                (receivedNow - lastReceived) / seconds,
+                (receivedBytesNow - lastReceivedBytes) / seconds / (1024 * 1024),
+                interval);
+
+        lastPublished = publishedNow;
+        lastReceived = receivedNow;
+        lastReceivedBytes = receivedBytesNow;
+        lastSampleNanos = now;
+        return sample;
+    }
+
+    //Only valid after the last "sample" call.
+    LatencyHistogram totalLatency() {
+        return totalLatency;
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    static class Sample {
+        static final String CSV_HEADER = "topology,elapsed_s,published_msg_s,received_msg_s,received_mb_s,latency_count,p50_us,p95_us,p99_us,max_us";
+
+        final Topology topology;
+        final double elapsedSeconds;
+        final double publishRate;
+        final double receiveRate;
+        final double receiveMegabytes;
+        final long latencyCount;
+        final long p50;
+        final long p95;
+        final long p99;
+        final long max;
+
+        Sample(Topology topology, double elapsedSeconds, double publishRate, double receiveRate, double receiveMegabytes, LatencyHistogram latency) {
+            this.topology = topology;
+            this.elapsedSeconds = elapsedSeconds;
+            this.publishRate = publishRate;
+            this.receiveRate = receiveRate;
+            this.receiveMegabytes = receiveMegabytes;
+            this.latencyCount = latency.count();
+            this.p50 = latency.percentile(50);
+            this.p95 = latency.percentile(95);
+            this.p99 = latency.percentile(99);
+            this.max = latency.percentile(100);
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%.3f,%.1f,%.1f,%.3f,%d,%d,%d,%d,%d",
+                    topology.cliName, elapsedSeconds, publishRate, receiveRate, receiveMegabytes, latencyCount, p50, p95, p99, max);
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"topology\":\"%s\",\"elapsed_s\":%.3f,\"published_msg_s\":%.1f,\"received_msg_s\":%.1f,\"received_mb_s\":%.3f,"
+                            + "\"latency_count\":%d,\"p50_us\":%d,\"p95_us\":%d,\"p99_us\":%d,\"max_us\":%d}",
+                    topology.cliName, elapsedSeconds, publishRate, receiveRate, receiveMegabytes, latencyCount, p50, p95, p99, max);
+        }
+    }
+}
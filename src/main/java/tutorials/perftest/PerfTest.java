@@ -0,0 +1,411 @@
+package tutorials.perftest;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class PerfTest {
+
+    //NOTES
+    //- Drives the tutorial topologies (see "Topology") with N producers and M consumers for a fixed duration, one topology after another.
+    //- Every message body starts with the producer's "System.nanoTime()", so latency is measured in the SAME JVM
+    //  (publish -> consume, or publish -> reply for "rpc").
+    //- Every second a sample (throughput + latency percentiles) is written to the time series file (CSV or JSON),
+    //  at the end a comparison report of all topologies is printed and written to "<output>-summary.<format>".
+    //- Example: PerfTest --topology hello,fanout,confirm --producers 2 --consumers 4 --size 100:0.9,65536:0.1 --rate 5000 --duration 30
+
+    private static final long RPC_REPLY_TIMEOUT_MS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        PerfTestOptions options;
+        try {
+            options = PerfTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            if (!e.getMessage().isEmpty()) {
+                System.err.println(e.getMessage());
+            }
+            System.err.println(PerfTestOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        //1. Connection factory shared by all runs.
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(options.host);
+
+        //2. Topologies run one after another, samples are written while the run continues.
+        //A failing run (node unreachable, declare failed) stops the test, but the runs before it are still reported.
+        List<Summary> summaries = new ArrayList<>();
+        Exception failure = null;
+        boolean json = options.format.equals("json");
+        try (PrintWriter timeSeries = new PrintWriter(Files.newBufferedWriter(Path.of(options.output)))) {
+            timeSeries.println(json ? "[" : Metrics.Sample.CSV_HEADER);
+            boolean[] firstRow = {true};
+
+            try {
+                runAll(factory, options, summaries, json, timeSeries, firstRow);
+            } finally {
+                //Closed also after a failure, so the time series file stays valid JSON.
+                if (json) {
+                    timeSeries.println("]");
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        //3. Final comparison report (of the completed runs).
+        if (!summaries.isEmpty()) {
+            printReport(summaries);
+            writeSummary(options, summaries);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void runAll(ConnectionFactory factory, PerfTestOptions options, List<Summary> summaries, boolean json,
+                               PrintWriter timeSeries, boolean[] firstRow) throws Exception {
+        for (Topology topology : options.topologies) {
+            System.out.println(" [*] Running '" + topology.cliName + "' for " + options.durationSeconds + " s ("
+                    + options.producers + " producer(s), " + options.consumers + " consumer(s), size " + options.size + ")");
+
+            Summary summary = run(factory, topology, options, sample -> {
+                synchronized (timeSeries) {
+                    if (json) {
+                        timeSeries.println((firstRow[0] ? "  " : ", ") + sample.toJson());
+                    } else {
+                        timeSeries.println(sample.toCsv());
+                    }
+                    timeSeries.flush();
+                    firstRow[0] = false;
+                }
+                System.out.format(Locale.ROOT, " [.] %-9s %6.1f s  published %,10.0f msg/s  received %,10.0f msg/s  p50 %,8d us  p99 %,8d us%n",
+                        topology.cliName, sample.elapsedSeconds, sample.publishRate, sample.receiveRate, sample.p50, sample.p99);
+            });
+            summaries.add(summary);
+        }
+    }
+
+    static Summary run(ConnectionFactory factory, Topology topology, PerfTestOptions options, Consumer<Metrics.Sample> sampleSink) throws Exception {
+        //1. Separate connections for producers and consumers, so publisher flow control does not slow down consumers.
+        try (Connection consumerConnection = factory.newConnection("perftest-consumers");
+             Connection producerConnection = factory.newConnection("perftest-producers")) {
+
+            //2. Topology declaration and cleaning old messages from previous runs.
+            try (Channel channel = consumerConnection.createChannel()) {
+                topology.declare(channel);
+                if (topology.sharedQueue() != null) {
+                    channel.queuePurge(topology.sharedQueue());
+                }
+            }
+
+            Metrics metrics = new Metrics();
+
+            //3. Consumers (or RPC servers) start BEFORE producers, otherwise fanout/direct/topic messages are dropped (no bound queue yet).
+            for (int i = 0; i < options.consumers; i++) {
+                startConsumer(consumerConnection.createChannel(), topology, options, metrics);
+            }
+
+            //4. Producers run on their own threads until the deadline.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            List<Thread> producers = new ArrayList<>();
+            for (int i = 0; i < options.producers; i++) {
+                Thread producer = new Thread(() -> {
+                    try (Channel channel = producerConnection.createChannel()) {
+                        produce(channel, topology, options, metrics, deadline);
+                    } catch (Exception e) {
+                        System.err.println(" [!] Producer failed: " + e);
+                    }
+                }, "perftest-producer-" + i);
+                producers.add(producer);
+                producer.start();
+            }
+
+            //5. One sample every second.
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(() -> sampleSink.accept(metrics.sample(topology)), 1, 1, TimeUnit.SECONDS);
+
+            long publishNanos;
+            try {
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+                publishNanos = metrics.elapsedNanos();
+
+                //6. Short drain period for in-flight messages, then the last sample.
+                waitForDrain(metrics);
+            } finally {
+                //Also on failure: no sample may be written after the time series is closed.
+                reporter.shutdown();
+                reporter.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            sampleSink.accept(metrics.sample(topology));
+
+            //7. Cleaning declared queue/exchange (temp queues removed with the connection).
+            try (Channel channel = consumerConnection.createChannel()) {
+                topology.delete(channel);
+            }
+
+            return new Summary(topology, metrics.published.sum(), metrics.received.sum(), publishNanos, metrics.totalLatency());
+        }
+    }
+
+    static void startConsumer(Channel channel, Topology topology, PerfTestOptions options, Metrics metrics) throws IOException {
+        String queueName = topology.declareConsumerQueue(channel);
+
+        if (topology.manualAck()) {
+            channel.basicQos(options.prefetch);
+        }
+
+        DeliverCallback deliverCallback;
+        if (topology == Topology.RPC) {
+            //RPC server: echoes the request body (so the timestamp returns to the client), latency is recorded by the client.
+            deliverCallback = (consumerTag, delivery) -> {
+                AMQP.BasicProperties replyProps = new AMQP.BasicProperties
+                        .Builder()
+                        .correlationId(delivery.getProperties().getCorrelationId())
+                        .build();
+                channel.basicPublish("", delivery.getProperties().getReplyTo(), replyProps, delivery.getBody());
+                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+            };
+        } else {
+            deliverCallback = (consumerTag, delivery) -> {
+                byte[] body = delivery.getBody();
+                metrics.recordReceived(ByteBuffer.wrap(body).getLong(), body.length);
+                if (topology.manualAck()) {
+                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                }
+            };
+        }
+
+        channel.basicConsume(queueName, !topology.manualAck(), deliverCallback, consumerTag -> { });
+    }
+
+    static void produce(Channel channel, Topology topology, PerfTestOptions options, Metrics metrics, long deadline) throws Exception {
+        //1. Topology specific setup.
+        ConfirmWindow confirmWindow = null;
+        if (topology == Topology.CONFIRM) {
+            confirmWindow = new ConfirmWindow(channel, options.confirmWindow);
+        }
+
+        BlockingQueue<String> replies = null;
+        String replyQueueName = null;
+        if (topology == Topology.RPC) {
+            replies = new ArrayBlockingQueue<>(options.consumers + 1);
+            replyQueueName = channel.queueDeclare().getQueue();
+            BlockingQueue<String> replyCorrelations = replies;
+            channel.basicConsume(replyQueueName, true, (consumerTag, delivery) -> {
+                byte[] body = delivery.getBody();
+                metrics.recordReceived(ByteBuffer.wrap(body).getLong(), body.length);
+                replyCorrelations.offer(delivery.getProperties().getCorrelationId());
+            }, consumerTag -> { });
+        }
+
+        //2. Fixed rate publishing (when "--rate" set): each message has its own send time, so a slow publish is caught up later.
+        long intervalNanos = options.rate > 0 ? TimeUnit.SECONDS.toNanos(1) / options.rate : 0;
+        long nextSend = System.nanoTime();
+        AMQP.BasicProperties properties = topology.properties();
+
+        for (long sequence = 0; System.nanoTime() < deadline; sequence++) {
+            if (intervalNanos > 0) {
+                long wait = nextSend - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                nextSend += intervalNanos;
+            }
+
+            byte[] body = new byte[options.size.next()];
+
+            if (topology == Topology.RPC) {
+                String correlationId = Long.toString(sequence);
+                AMQP.BasicProperties props = new AMQP.BasicProperties
+                        .Builder()
+                        .correlationId(correlationId)
+                        .replyTo(replyQueueName)
+                        .build();
+                ByteBuffer.wrap(body).putLong(System.nanoTime());
+                channel.basicPublish("", topology.sharedQueue(), props, body);
+                metrics.published.increment();
+                awaitReply(replies, correlationId);
+                continue;
+            }
+
+            if (confirmWindow != null) {
+                //Max. "--confirm-window" unconfirmed messages, otherwise producer waits for the broker.
+                if (!confirmWindow.acquire(channel)) {
+                    continue;
+                }
+            }
+            ByteBuffer.wrap(body).putLong(System.nanoTime());
+            channel.basicPublish(topology.exchange(), topology.routingKey(sequence), properties, body);
+            metrics.published.increment();
+        }
+
+        //3. Waiting last confirms before closing the channel.
+        if (confirmWindow != null) {
+            channel.waitForConfirms(5_000);
+        }
+    }
+
+    //Same async confirm handling with "publisherconfirms" tutorial, confirmed (or nack-ed) messages free a place in the window.
+    static class ConfirmWindow {
+        private final Semaphore permits;
+        private final ConcurrentNavigableMap<Long, Boolean> outstandingConfirms = new ConcurrentSkipListMap<>();
+
+        ConfirmWindow(Channel channel, int size) throws IOException {
+            permits = new Semaphore(size);
+            channel.confirmSelect();
+
+            ConfirmCallback releaseConfirmed = (sequenceNumber, multiple) -> {
+                if (multiple) {
+                    ConcurrentNavigableMap<Long, Boolean> confirmed = outstandingConfirms.headMap(sequenceNumber, true);
+                    int count = confirmed.size();
+                    confirmed.clear();
+                    permits.release(count);
+                } else if (outstandingConfirms.remove(sequenceNumber) != null) {
+                    permits.release();
+                }
+            };
+            ConfirmCallback nackMessages = (sequenceNumber, multiple) -> {
+                System.err.format(" [!] Message(s) nack-ed. Sequence number: %d, multiple: %b%n", sequenceNumber, multiple);
+                releaseConfirmed.handle(sequenceNumber, multiple);
+            };
+            channel.addConfirmListener(releaseConfirmed, nackMessages);
+        }
+
+        //Takes a place for the next publish, returns false if the broker did not confirm anything for 1 second.
+        boolean acquire(Channel channel) throws InterruptedException {
+            if (!permits.tryAcquire(1, TimeUnit.SECONDS)) {
+                return false;
+            }
+            outstandingConfirms.put(channel.getNextPublishSeqNo(), Boolean.TRUE);
+            return true;
+        }
+    }
+
+    private static void awaitReply(BlockingQueue<String> replies, String correlationId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + RPC_REPLY_TIMEOUT_MS;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            String reply = replies.poll(remaining, TimeUnit.MILLISECONDS);
+            if (correlationId.equals(reply)) {
+                return;
+            }
+            // Late reply of a timed out request, ignored.
+        }
+        System.err.println(" [!] RPC reply timeout for correlationId " + correlationId);
+    }
+
+    private static void waitForDrain(Metrics metrics) throws InterruptedException {
+        long last = -1;
+        for (int i = 0; i < 20; i++) {
+            long received = metrics.received.sum();
+            if (received == last) {
+                return;
+            }
+            last = received;
+            Thread.sleep(250);
+        }
+    }
+
+    private static void printReport(List<Summary> summaries) {
+        System.out.println();
+        System.out.println(" [x] Comparison report");
+        System.out.format("%-10s %12s %12s %14s %14s %10s %10s %10s %10s%n",
+                "topology", "published", "received", "publish msg/s", "receive msg/s", "p50 us", "p95 us", "p99 us", "p99.9 us");
+        for (Summary summary : summaries) {
+            System.out.format(Locale.ROOT, "%-10s %,12d %,12d %,14.0f %,14.0f %,10d %,10d %,10d %,10d%n",
+                    summary.topology.cliName, summary.published, summary.received, summary.publishRate(), summary.receiveRate(),
+                    summary.p50, summary.p95, summary.p99, summary.p999);
+        }
+    }
+
+    private static void writeSummary(PerfTestOptions options, List<Summary> summaries) throws IOException {
+        String output = options.output;
+        int extension = output.lastIndexOf('.');
+        Path summaryPath = Path.of((extension > 0 ? output.substring(0, extension) : output) + "-summary." + options.format);
+
+        List<String> lines = new ArrayList<>();
+        if (options.format.equals("json")) {
+            lines.add("[");
+            for (int i = 0; i < summaries.size(); i++) {
+                lines.add("  " + summaries.get(i).toJson() + (i < summaries.size() - 1 ? "," : ""));
+            }
+            lines.add("]");
+        } else {
+            lines.add(Summary.CSV_HEADER);
+            for (Summary summary : summaries) {
+                lines.add(summary.toCsv());
+            }
+        }
+        Files.write(summaryPath, lines);
+        System.out.println(" [x] Time series written to " + options.output + ", summary written to " + summaryPath);
+    }
+
+    static class Summary {
+        static final String CSV_HEADER = "topology,published,received,duration_s,published_msg_s,received_msg_s,p50_us,p95_us,p99_us,p999_us";
+
+        final Topology topology;
+        final long published;
+        final long received;
+        final double seconds;
+        final long p50;
+        final long p95;
+        final long p99;
+        final long p999;
+
+        Summary(Topology topology, long published, long received, long publishNanos, LatencyHistogram latency) {
+            this.topology = topology;
+            this.published = published;
+            this.received = received;
+            this.seconds = publishNanos / 1e9;
+            this.p50 = latency.percentile(50);
+            this.p95 = latency.percentile(95);
+            this.p99 = latency.percentile(99);
+            this.p999 = latency.percentile(99.9);
+        }
+
+        double publishRate() {
+            return published / seconds;
+        }
+
+        double receiveRate() {
+            return received / seconds;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%d,%.3f,%.1f,%.1f,%d,%d,%d,%d",
+                    topology.cliName, published, received, seconds, publishRate(), receiveRate(), p50, p95, p99, p999);
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"topology\":\"%s\",\"published\":%d,\"received\":%d,\"duration_s\":%.3f,\"published_msg_s\":%.1f,"
+                            + "\"received_msg_s\":%.1f,\"p50_us\":%d,\"p95_us\":%d,\"p99_us\":%d,\"p999_us\":%d}",
+                    topology.cliName, published, received, seconds, publishRate(), receiveRate(), p50, p95, p99, p999);
+        }
+    }
+}
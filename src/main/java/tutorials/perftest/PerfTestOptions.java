@@ -0,0 +1,90 @@
+package tutorials.perftest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Command line options of "PerfTest", every option has a default so "PerfTest" runs without any argument.
+class PerfTestOptions {
+    String host = "localhost";
+    List<Topology> topologies = new ArrayList<>(Arrays.asList(Topology.values()));
+    int producers = 1;
+    int consumers = 1;
+    SizeDistribution size = SizeDistribution.parse("32");
+    int rate = 0; // msg/s for EACH producer, 0 = as fast as possible.
+    int durationSeconds = 10;
+    int prefetch = 100; // for manual ack consumers (work queue and rpc server).
+    int confirmWindow = 100; // max. unconfirmed messages for each "confirm" producer.
+    String format = "csv";
+    String output = null; // null -> "perftest.<format>"
+
+    static final String USAGE = String.join("\n",
+            "Usage: PerfTest [options]",
+            "  --host <host>              RabbitMQ host (default: localhost)",
+            "  --topology <t1,t2,..|all>  hello, workqueue, fanout, direct, topic, rpc, confirm (default: all)",
+            "  --producers <n>            producer count (default: 1)",
+            "  --consumers <n>            consumer count, rpc servers for 'rpc' (default: 1)",
+            "  --size <spec>              body size: '1024', '100-10000' or '100:0.9,1048576:0.1' (default: 32)",
+            "  --rate <msg/s>             publish rate for each producer, 0 = unlimited (default: 0)",
+            "  --duration <seconds>       duration of each topology run (default: 10)",
+            "  --prefetch <n>             basicQos for manual ack consumers (default: 100)",
+            "  --confirm-window <n>       max. outstanding confirms for each 'confirm' producer (default: 100)",
+            "  --format <csv|json>        time series output format (default: csv)",
+            "  --output <file>            time series output file (default: perftest.<format>)");
+
+    static PerfTestOptions parse(String[] args) {
+        PerfTestOptions options = new PerfTestOptions();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (name.equals("--help") || name.equals("-h")) {
+                throw new IllegalArgumentException("");
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for option " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--host" -> options.host = value;
+                case "--topology" -> options.topologies = parseTopologies(value);
+                case "--producers" -> options.producers = positive(name, value);
+                case "--consumers" -> options.consumers = positive(name, value);
+                case "--size" -> options.size = SizeDistribution.parse(value);
+                case "--rate" -> options.rate = Integer.parseInt(value);
+                case "--duration" -> options.durationSeconds = positive(name, value);
+                case "--prefetch" -> options.prefetch = positive(name, value);
+                case "--confirm-window" -> options.confirmWindow = positive(name, value);
+                case "--format" -> {
+                    if (!value.equals("csv") && !value.equals("json")) {
+                        throw new IllegalArgumentException("Unknown format '" + value + "'");
+                    }
+                    options.format = value;
+                }
+                case "--output" -> options.output = value;
+                default -> throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        if (options.output == null) {
+            options.output = "perftest." + options.format;
+        }
+        return options;
+    }
+
+    private static List<Topology> parseTopologies(String value) {
+        if (value.equals("all")) {
+            return new ArrayList<>(Arrays.asList(Topology.values()));
+        }
+        List<Topology> topologies = new ArrayList<>();
+        for (String name : value.split(",")) {
+            topologies.add(Topology.fromName(name.trim()));
+        }
+        return topologies;
+    }
+
+    private static int positive(String name, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,88 @@
+package tutorials.perftest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+//Message body size distribution, parsed from the "--size" option:
+//- "1024"                  -> every message is 1024 bytes.
+//- "100-10000"             -> uniform between 100 and 10000 bytes.
+//- "100:0.9,1048576:0.1"   -> weighted choice, 90% 100 bytes and 10% 1 MB messages.
+class SizeDistribution {
+    // Every body carries the publish timestamp (for latency), so this is the smallest possible message.
+    static final int MIN_SIZE = Long.BYTES;
+
+    private final int[] sizes;
+    private final double[] cumulativeWeights;
+    private final boolean uniform;
+    private final String spec;
+
+    private SizeDistribution(String spec, int[] sizes, double[] cumulativeWeights, boolean uniform) {
+        this.spec = spec;
+        this.sizes = sizes;
+        this.cumulativeWeights = cumulativeWeights;
+        this.uniform = uniform;
+    }
+
+    static SizeDistribution parse(String spec) {
+        String trimmed = spec.trim();
+        if (trimmed.contains(":")) {
+            String[] entries = trimmed.split(",");
+            int[] sizes = new int[entries.length];
+            double[] cumulative = new double[entries.length];
+            double total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] parts = entries[i].trim().split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid size entry '" + entries[i] + "', expected <bytes>:<weight>");
+                }
+                sizes[i] = parseSize(parts[0]);
+                double weight = Double.parseDouble(parts[1]);
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("Size weight must be positive: '" + entries[i] + "'");
+                }
+                total += weight;
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < cumulative.length; i++) {
+                cumulative[i] /= total;
+            }
+            return new SizeDistribution(trimmed, sizes, cumulative, false);
+        }
+        if (trimmed.contains("-")) {
+            String[] parts = trimmed.split("-");
+            int min = parseSize(parts[0]);
+            int max = parseSize(parts[1]);
+            if (max < min) {
+                throw new IllegalArgumentException("Invalid size range '" + spec + "'");
+            }
+            return new SizeDistribution(trimmed, new int[]{min, max}, null, true);
+        }
+        return new SizeDistribution(trimmed, new int[]{parseSize(trimmed)}, new double[]{1.0}, false);
+    }
+
+    int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (uniform) {
+            return random.nextInt(sizes[0], sizes[1] + 1);
+        }
+        if (sizes.length == 1) {
+            return sizes[0];
+        }
+        double r = random.nextDouble();
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private static int parseSize(String value) {
+        int size = Integer.parseInt(value.trim());
+        return Math.max(MIN_SIZE, size);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
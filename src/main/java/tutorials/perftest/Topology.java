@@ -0,0 +1,111 @@
+package tutorials.perftest;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.MessageProperties;
+
+import java.io.IOException;
+
+//Same exchange/queue shapes as the tutorials, with "perf_" prefixed names so load tests do not mix with tutorial messages.
+enum Topology {
+    HELLO_WORLD("hello"),   // default exchange -> one non durable queue, auto ack.
+    WORK_QUEUE("workqueue"),// default exchange -> one durable queue, persistent messages, competing consumers with manual ack.
+    FANOUT("fanout"),       // fanout exchange -> temp queue for EACH consumer (every consumer gets every message).
+    DIRECT("direct"),       // direct exchange -> temp queue for EACH consumer bound with all severities.
+    TOPIC("topic"),         // topic exchange -> temp queue for EACH consumer bound with the tutorial's routing patterns.
+    RPC("rpc"),             // request queue -> rpc servers (consumers) -> reply queue of EACH client (producer).
+    CONFIRM("confirm");     // default exchange -> one queue, publisher confirms with async confirm handling.
+
+    private static final String[] SEVERITIES = {"ERROR", "INFO", "TRACE"};
+    private static final String[] ROUTING_PATTERNS = {"kern.*", "*.kern.*", "#.err"};
+    private static final String[] TOPIC_ROUTING_KEYS = {"kern.info", "root.kern.warn", "auth.err"};
+
+    final String cliName;
+
+    Topology(String cliName) {
+        this.cliName = cliName;
+    }
+
+    static Topology fromName(String name) {
+        for (Topology topology : values()) {
+            if (topology.cliName.equals(name)) {
+                return topology;
+            }
+        }
+        throw new IllegalArgumentException("Unknown topology '" + name + "'");
+    }
+
+    String exchange() {
+        return switch (this) {
+            case FANOUT -> "perf_fanout";
+            case DIRECT -> "perf_direct";
+            case TOPIC -> "perf_topic";
+            default -> "";
+        };
+    }
+
+    //Queue shared by all consumers, null for the exchange topologies (each consumer has its own temp queue).
+    String sharedQueue() {
+        return switch (this) {
+            case HELLO_WORLD -> "perf_hello";
+            case WORK_QUEUE -> "perf_task_queue";
+            case RPC -> "perf_rpc_queue";
+            case CONFIRM -> "perf_confirm";
+            default -> null;
+        };
+    }
+
+    boolean manualAck() {
+        return this == WORK_QUEUE || this == RPC;
+    }
+
+    void declare(Channel channel) throws IOException {
+        switch (this) {
+            case FANOUT -> channel.exchangeDeclare(exchange(), BuiltinExchangeType.FANOUT);
+            case DIRECT -> channel.exchangeDeclare(exchange(), BuiltinExchangeType.DIRECT);
+            case TOPIC -> channel.exchangeDeclare(exchange(), BuiltinExchangeType.TOPIC);
+            case WORK_QUEUE -> channel.queueDeclare(sharedQueue(), true, false, false, null);
+            default -> channel.queueDeclare(sharedQueue(), false, false, false, null);
+        }
+    }
+
+    //Returns the queue name that ONE consumer listens.
+    String declareConsumerQueue(Channel channel) throws IOException {
+        if (sharedQueue() != null) {
+            return sharedQueue();
+        }
+        String queueName = channel.queueDeclare().getQueue();
+        String[] bindingKeys = switch (this) {
+            case DIRECT -> SEVERITIES;
+            case TOPIC -> ROUTING_PATTERNS;
+            default -> new String[]{""};
+        };
+        for (String bindingKey : bindingKeys) {
+            channel.queueBind(queueName, exchange(), bindingKey);
+        }
+        return queueName;
+    }
+
+    String routingKey(long sequence) {
+        return switch (this) {
+            case FANOUT -> "";
+            case DIRECT -> SEVERITIES[(int) (sequence % SEVERITIES.length)];
+            case TOPIC -> TOPIC_ROUTING_KEYS[(int) (sequence % TOPIC_ROUTING_KEYS.length)];
+            default -> sharedQueue();
+        };
+    }
+
+    AMQP.BasicProperties properties() {
+        return this == WORK_QUEUE ? MessageProperties.PERSISTENT_BASIC : null;
+    }
+
+    //Removes what "declare" created, temp queues are removed by the server.
+    void delete(Channel channel) throws IOException {
+        if (sharedQueue() != null) {
+            channel.queueDelete(sharedQueue());
+        } else {
+            channel.exchangeDelete(exchange());
+        }
+    }
+}
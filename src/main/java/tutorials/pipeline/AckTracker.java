@@ -0,0 +1,68 @@
+package tutorials.pipeline;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+//Coalesces source acks: ONE "basicAck(tag, multiple = true)" for all completed messages, instead of one ack per message.
+//- Every source delivery tag is "pending" from delivery until its derived message is confirmed (or dropped/rejected).
+//- Lanes complete messages OUT OF ORDER (different keys), so acks only go up to the lowest still pending tag.
+//- The ack tag is always a SUCCESSFULLY completed tag: a multiple ack with a nack-ed (no longer outstanding) tag is
+//  "unknown delivery tag" for the broker, which closes the channel. Nack-ed tags below it are simply not covered anymore.
+class AckTracker {
+    private final Channel sourceChannel;
+    private final int ackEvery;
+
+    private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+    //Completed successfully, not acked yet.
+    private final ConcurrentSkipListSet<Long> succeeded = new ConcurrentSkipListSet<>();
+    private volatile long lastAcked; // written under "this"
+
+    AckTracker(Channel sourceChannel, int ackEvery) {
+        this.sourceChannel = sourceChannel;
+        this.ackEvery = ackEvery;
+    }
+
+    //Called on the consumer thread, BEFORE the message goes to a lane (delivery tags arrive in increasing order).
+    void received(long deliveryTag) {
+        pending.add(deliveryTag);
+    }
+
+    void completed(long deliveryTag) throws IOException {
+        if (!pending.contains(deliveryTag)) {
+            return;
+        }
+        //Added before it leaves "pending", so a concurrent "flush" never sees it in neither set.
+        succeeded.add(deliveryTag);
+        pending.remove(deliveryTag);
+        if (ackableUpTo() - lastAcked >= ackEvery) {
+            flush();
+        }
+    }
+
+    //Rejected message: nack-ed on its own while it is still pending, so no "multiple" ack covers it in between.
+    synchronized void rejected(long deliveryTag, boolean requeue) throws IOException {
+        if (pending.contains(deliveryTag)) {
+            sourceChannel.basicNack(deliveryTag, false, requeue);
+            pending.remove(deliveryTag);
+        }
+    }
+
+    //Acks everything below the lowest pending tag. Also called periodically, so a quiet pipeline does not keep messages unacked.
+    synchronized void flush() throws IOException {
+        long upTo = ackableUpTo();
+        if (upTo > lastAcked) {
+            sourceChannel.basicAck(upTo, true);
+            lastAcked = upTo;
+            succeeded.headSet(upTo, true).clear();
+        }
+    }
+
+    //Highest succeeded tag below the lowest pending one ("pending" read first: a tag completing in between is in "succeeded").
+    private long ackableUpTo() {
+        Long lowestPending = pending.ceiling(Long.MIN_VALUE); // null when empty ("first()" would throw)
+        Long highest = succeeded.floor(lowestPending == null ? Long.MAX_VALUE : lowestPending - 1);
+        return highest == null ? 0 : highest;
+    }
+}
@@ -0,0 +1,362 @@
+package tutorials.pipeline;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+//Consume -> transform (N stages) -> publish, with:
+//- bounded queues between stages (a slow stage slows down consuming, no unbounded memory growth),
+//- "parallelism" lanes: messages with the SAME key always go to the SAME lane, so order is kept per key, not globally,
+//- publishing on a confirm channel (async confirms, at most "maxUnconfirmed" in flight), and source acks coalesced until the
+//  derived publish is confirmed (see "AckTracker").
+//
+//Each source message produces at most ONE derived message (a stage returning null drops it).
+public class Pipeline implements AutoCloseable {
+    private static final PipelineMessage POISON = new PipelineMessage(-1, "", "", null, new byte[0]);
+
+    private final Builder config;
+    private final List<Thread> threads = new ArrayList<>();
+    private final ScheduledExecutorService ackFlusher = Executors.newSingleThreadScheduledExecutor();
+    private final List<List<BlockingQueue<PipelineMessage>>> stageQueues = new ArrayList<>();
+    private BlockingQueue<PipelineMessage> sinkQueue;
+    private Channel sourceChannel;
+    private Channel sinkChannel;
+    private AckTracker ackTracker;
+    private String consumerTag;
+    private final CountDownLatch consumerCancelled = new CountDownLatch(1);
+    private volatile boolean running;
+
+    private Pipeline(Builder config) {
+        this.config = config;
+    }
+
+    public static Builder builder(Connection connection) {
+        return new Builder(connection);
+    }
+
+    public void start() throws IOException {
+        running = true;
+
+        //1. Sink: confirm channel and its exchange.
+        sinkChannel = config.connection.createChannel();
+        sinkChannel.exchangeDeclare(config.sinkExchange, config.sinkExchangeType);
+        sinkChannel.confirmSelect();
+
+        //2. Source: queue bound to the source exchange. Prefetch limits the unacked (in pipeline) messages.
+        sourceChannel = config.connection.createChannel();
+        sourceChannel.exchangeDeclare(config.sourceExchange, config.sourceExchangeType);
+        sourceChannel.queueDeclare(config.sourceQueue, true, false, false, null);
+        for (String bindingKey : config.bindingKeys) {
+            sourceChannel.queueBind(config.sourceQueue, config.sourceExchange, bindingKey);
+        }
+        sourceChannel.basicQos(config.prefetch);
+        ackTracker = new AckTracker(sourceChannel, config.ackEvery);
+
+        //3. Bounded queues: one per (stage, lane), and one in front of the publisher.
+        for (int s = 0; s < config.stages.size(); s++) {
+            List<BlockingQueue<PipelineMessage>> lanes = new ArrayList<>();
+            for (int l = 0; l < config.parallelism; l++) {
+                lanes.add(new ArrayBlockingQueue<>(config.queueCapacity));
+            }
+            stageQueues.add(lanes);
+        }
+        sinkQueue = new ArrayBlockingQueue<>(config.queueCapacity);
+
+        //4. One worker thread per (stage, lane): stages of a lane run in parallel like an assembly line.
+        for (int s = 0; s < config.stages.size(); s++) {
+            for (int l = 0; l < config.parallelism; l++) {
+                int stageIndex = s;
+                int lane = l;
+                startThread("pipeline-" + config.stageNames.get(s) + "-" + l, () -> runStage(stageIndex, lane));
+            }
+        }
+        startThread("pipeline-publisher", this::runPublisher);
+
+        //5. Acks of a quiet pipeline (less than "ackEvery" completed) are flushed periodically.
+        ackFlusher.scheduleWithFixedDelay(() -> {
+            try {
+                ackTracker.flush();
+            } catch (Exception e) {
+                System.err.println(" [!] Ack flush failed: " + e);
+            }
+        }, config.ackFlushMs, config.ackFlushMs, TimeUnit.MILLISECONDS);
+
+        //6. Consuming: delivery goes to the first stage's lane of its key ("put" blocks when the lane is full -> backpressure).
+        //"DefaultConsumer" instead of a "DeliverCallback" for "handleCancelOk": it runs after the already dispatched deliveries,
+        //so "close" knows when no delivery can be enqueued anymore.
+        consumerTag = sourceChannel.basicConsume(config.sourceQueue, false, new DefaultConsumer(sourceChannel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+                long tag = envelope.getDeliveryTag();
+                ackTracker.received(tag);
+                PipelineMessage message = new PipelineMessage(tag, null, envelope.getRoutingKey(), properties, body);
+                message = new PipelineMessage(tag, config.keyExtractor.apply(message), message.routingKey(), message.properties(), message.body());
+                try {
+                    enqueue(message, 0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    ackTracker.rejected(tag, true);
+                }
+            }
+
+            @Override
+            public void handleCancelOk(String consumerTag) {
+                consumerCancelled.countDown();
+            }
+        });
+    }
+
+    private void enqueue(PipelineMessage message, int stageIndex) throws InterruptedException {
+        if (stageIndex == config.stages.size()) {
+            sinkQueue.put(message);
+        } else {
+            stageQueues.get(stageIndex).get(laneOf(message.key())).put(message);
+        }
+    }
+
+    private int laneOf(String key) {
+        return Math.floorMod(key == null ? 0 : key.hashCode(), config.parallelism);
+    }
+
+    private void runStage(int stageIndex, int lane) {
+        Stage stage = config.stages.get(stageIndex);
+        BlockingQueue<PipelineMessage> input = stageQueues.get(stageIndex).get(lane);
+        try {
+            while (true) {
+                PipelineMessage message = input.take();
+                if (message == POISON) {
+                    return;
+                }
+                PipelineMessage result;
+                try {
+                    result = stage.apply(message);
+                } catch (Exception e) {
+                    System.err.println(" [!] Stage '" + config.stageNames.get(stageIndex) + "' failed, message rejected: " + e);
+                    ackTracker.rejected(message.sourceDeliveryTag, false);
+                    continue;
+                }
+                if (result == null) {
+                    ackTracker.completed(message.sourceDeliveryTag);
+                    continue;
+                }
+                enqueue(result, stageIndex + 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println(" [!] Stage '" + config.stageNames.get(stageIndex) + "' stopped: " + e);
+        }
+    }
+
+    private void runPublisher() {
+        //1. Publish sequence number -> source delivery tag, same technique with async "publisherconfirms".
+        ConcurrentNavigableMap<Long, Long> outstandingConfirms = new ConcurrentSkipListMap<>();
+        Semaphore inFlight = new Semaphore(config.maxUnconfirmed);
+
+        ConfirmCallback confirmed = (sequenceNumber, multiple) -> {
+            Map<Long, Long> done = multiple ? outstandingConfirms.headMap(sequenceNumber, true) : singleEntry(outstandingConfirms, sequenceNumber);
+            for (Long sourceTag : new ArrayList<>(done.values())) {
+                ackTracker.completed(sourceTag);
+                inFlight.release();
+            }
+            done.clear();
+        };
+        ConfirmCallback nacked = (sequenceNumber, multiple) -> {
+            Map<Long, Long> done = multiple ? outstandingConfirms.headMap(sequenceNumber, true) : singleEntry(outstandingConfirms, sequenceNumber);
+            for (Long sourceTag : new ArrayList<>(done.values())) {
+                //Broker lost the derived message: source message requeued, so it goes through the pipeline again.
+                ackTracker.rejected(sourceTag, true);
+                inFlight.release();
+            }
+            done.clear();
+        };
+        sinkChannel.addConfirmListener(confirmed, nacked);
+
+        try {
+            while (true) {
+                //2. Publishing without waiting: confirms come back asynchronously, "inFlight" limits the unconfirmed messages.
+                PipelineMessage message = sinkQueue.take();
+                if (message == POISON) {
+                    return;
+                }
+                inFlight.acquire();
+                outstandingConfirms.put(sinkChannel.getNextPublishSeqNo(), message.sourceDeliveryTag);
+                sinkChannel.basicPublish(config.sinkExchange, message.routingKey(), message.properties(), message.body());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println(" [!] Publisher stopped: " + e);
+        }
+    }
+
+    private static Map<Long, Long> singleEntry(ConcurrentNavigableMap<Long, Long> map, long key) {
+        return map.subMap(key, true, key, true);
+    }
+
+    private void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        threads.add(thread);
+        thread.start();
+    }
+
+    //Stops consuming, lets the queued messages go through (poison message after them), waits last confirms and acks.
+    //Ack flusher and channels are closed also when a step fails or the calling thread is interrupted.
+    @Override
+    public void close() throws IOException, TimeoutException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            sourceChannel.basicCancel(consumerTag);
+            //Prefetched deliveries may still be dispatched after "basicCancel" returns: poison only after the last of them,
+            //otherwise they would be queued behind the poison message and nobody would take them.
+            if (!consumerCancelled.await(30, TimeUnit.SECONDS)) {
+                throw new TimeoutException("Consumer was not cancelled in 30 seconds");
+            }
+            for (int s = 0; s < config.stages.size(); s++) {
+                for (BlockingQueue<PipelineMessage> lane : stageQueues.get(s)) {
+                    lane.put(POISON);
+                }
+                for (int l = 0; l < config.parallelism; l++) {
+                    threads.get(s * config.parallelism + l).join();
+                }
+            }
+            sinkQueue.put(POISON);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            //False: some derived messages were nack-ed, their source messages are already requeued by the confirm listener.
+            if (!sinkChannel.waitForConfirms(5_000)) {
+                System.err.println(" [!] Some derived messages were nack-ed by the broker, their source messages were requeued");
+            }
+            ackTracker.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the pipeline, unacked source messages will be redelivered");
+        } finally {
+            ackFlusher.shutdown();
+            try {
+                closeIfOpen(sourceChannel);
+            } finally {
+                closeIfOpen(sinkChannel);
+            }
+        }
+    }
+
+    private static void closeIfOpen(Channel channel) throws IOException, TimeoutException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    public static class Builder {
+        private final Connection connection;
+        private String sourceExchange;
+        private BuiltinExchangeType sourceExchangeType;
+        private String sourceQueue;
+        private String[] bindingKeys;
+        private String sinkExchange;
+        private BuiltinExchangeType sinkExchangeType;
+        private final List<Stage> stages = new ArrayList<>();
+        private final List<String> stageNames = new ArrayList<>();
+        private Function<PipelineMessage, String> keyExtractor = PipelineMessage::routingKey;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 1_000;
+        private int prefetch = 1_000;
+        private int maxUnconfirmed = 1_000;
+        private int ackEvery = 100;
+        private long ackFlushMs = 50;
+
+        private Builder(Connection connection) {
+            this.connection = connection;
+        }
+
+        //Durable "queue" bound to "exchange" with the binding keys (routing patterns for topic exchange).
+        public Builder source(String exchange, BuiltinExchangeType type, String queue, String... bindingKeys) {
+            this.sourceExchange = exchange;
+            this.sourceExchangeType = type;
+            this.sourceQueue = queue;
+            this.bindingKeys = bindingKeys;
+            return this;
+        }
+
+        public Builder stage(String name, Stage stage) {
+            stageNames.add(name);
+            stages.add(stage);
+            return this;
+        }
+
+        //Derived messages are published to "exchange" with their "routingKey()".
+        public Builder sink(String exchange, BuiltinExchangeType type) {
+            this.sinkExchange = exchange;
+            this.sinkExchangeType = type;
+            return this;
+        }
+
+        //Ordering key, default is the source routing key.
+        public Builder keyExtractor(Function<PipelineMessage, String> keyExtractor) {
+            this.keyExtractor = keyExtractor;
+            return this;
+        }
+
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder prefetch(int prefetch) {
+            this.prefetch = prefetch;
+            return this;
+        }
+
+        public Builder maxUnconfirmed(int maxUnconfirmed) {
+            this.maxUnconfirmed = maxUnconfirmed;
+            return this;
+        }
+
+        //One multiple ack for every "ackEvery" completed messages (and at least every "flushMs").
+        public Builder ackEvery(int ackEvery, long flushMs) {
+            this.ackEvery = ackEvery;
+            this.ackFlushMs = flushMs;
+            return this;
+        }
+
+        public Pipeline build() {
+            if (sourceExchange == null || sinkExchange == null) {
+                throw new IllegalStateException("Pipeline needs a source and a sink");
+            }
+            if (parallelism <= 0 || queueCapacity <= 0 || maxUnconfirmed <= 0 || ackEvery <= 0) {
+                throw new IllegalStateException("Pipeline sizes must be positive");
+            }
+            return new Pipeline(this);
+        }
+    }
+}
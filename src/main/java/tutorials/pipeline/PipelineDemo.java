@@ -0,0 +1,132 @@
+package tutorials.pipeline;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelineDemo {
+
+    //NOTES
+    //- 3 stage pipeline: "pipeline_topic" (topic exchange) -> parse -> enrich -> route -> "pipeline_direct" (direct exchange).
+    //- A load producer publishes with a "x-sent-nanos" header, a measuring consumer on the direct exchange computes end-to-end
+    //  latency (publish -> pipeline -> consume, SAME JVM) and throughput.
+    //- Usage: PipelineDemo [messages] [parallelism]
+
+    private static final String SOURCE_EXCHANGE = "pipeline_topic";
+    private static final String SOURCE_QUEUE = "pipeline_source";
+    private static final String SINK_EXCHANGE = "pipeline_direct";
+    private static final String[] ROUTING_KEYS = {"kern.err", "root.kern.warn", "auth.info", "app.db.err"};
+    private static final String[] SEVERITIES = {"ERROR", "WARN", "INFO"};
+
+    public static void main(String[] args) throws Exception {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+
+        try (Connection pipelineConnection = factory.newConnection("pipeline");
+             Connection clientConnection = factory.newConnection("pipeline-demo")) {
+
+            //1. Measuring consumer: temp queue bound to the sink exchange with all severities.
+            Channel measureChannel = clientConnection.createChannel();
+            measureChannel.exchangeDeclare(SINK_EXCHANGE, BuiltinExchangeType.DIRECT);
+            String measureQueue = measureChannel.queueDeclare().getQueue();
+            for (String severity : SEVERITIES) {
+                measureChannel.queueBind(measureQueue, SINK_EXCHANGE, severity);
+            }
+            long[] latencies = new long[messageCount];
+            AtomicInteger received = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(messageCount);
+            measureChannel.basicConsume(measureQueue, true, (consumerTag, delivery) -> {
+                long sentNanos = (Long) delivery.getProperties().getHeaders().get("x-sent-nanos");
+                int index = received.getAndIncrement();
+                if (index < latencies.length) {
+                    latencies[index] = System.nanoTime() - sentNanos;
+                }
+                done.countDown();
+            }, consumerTag -> { });
+
+            //2. Pipeline: ordering key is the source routing key, so messages of "kern.err" are never reordered.
+            Pipeline pipeline = Pipeline.builder(pipelineConnection)
+                    .source(SOURCE_EXCHANGE, BuiltinExchangeType.TOPIC, SOURCE_QUEUE, "kern.*", "*.kern.*", "#.err", "#.info")
+                    .stage("parse", message -> {
+                        String text = new String(message.body(), StandardCharsets.UTF_8).trim();
+                        return text.isEmpty() ? null : message.withBody(text.getBytes(StandardCharsets.UTF_8));
+                    })
+                    .stage("enrich", message -> {
+                        String text = new String(message.body(), StandardCharsets.UTF_8);
+                        return message.withBody(("[" + message.routingKey() + "] " + text.toUpperCase()).getBytes(StandardCharsets.UTF_8));
+                    })
+                    .stage("route", message -> message.withRoutingKey(severityOf(message.routingKey())))
+                    .sink(SINK_EXCHANGE, BuiltinExchangeType.DIRECT)
+                    .parallelism(parallelism)
+                    .build();
+            //2.1. Messages left from a previous run would break the numbers.
+            try (Channel setupChannel = clientConnection.createChannel()) {
+                setupChannel.queueDeclare(SOURCE_QUEUE, true, false, false, null);
+                setupChannel.queuePurge(SOURCE_QUEUE);
+            }
+            pipeline.start();
+
+            //3. Load: publishing to the topic exchange with confirms in batches (see "publisherconfirms" strategy #2).
+            long start = System.nanoTime();
+            try (Channel loadChannel = clientConnection.createChannel()) {
+                loadChannel.confirmSelect();
+                for (int i = 0; i < messageCount; i++) {
+                    AMQP.BasicProperties props = new AMQP.BasicProperties
+                            .Builder()
+                            .headers(Map.of("x-sent-nanos", System.nanoTime()))
+                            .build();
+                    loadChannel.basicPublish(SOURCE_EXCHANGE, ROUTING_KEYS[i % ROUTING_KEYS.length], props,
+                            (" log line " + i + " ").getBytes(StandardCharsets.UTF_8));
+                    if (i % 1_000 == 999) {
+                        loadChannel.waitForConfirmsOrDie(5_000);
+                    }
+                }
+                loadChannel.waitForConfirmsOrDie(5_000);
+            }
+
+            //4. Results.
+            if (!done.await(2, TimeUnit.MINUTES)) {
+                System.out.println(" [!] Only " + received.get() + " of " + messageCount + " messages went through the pipeline");
+            }
+            long elapsed = System.nanoTime() - start;
+            pipeline.close();
+
+            int count = Math.min(received.get(), latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.format(" [x] %,d messages through 3 stages (parallelism %d) in %,d ms: %,.0f msg/s%n",
+                    count, parallelism, TimeUnit.NANOSECONDS.toMillis(elapsed), count / (elapsed / 1e9));
+            System.out.format(" [x] End-to-end latency p50: %.2f ms, p95: %.2f ms, p99: %.2f ms, max: %.2f ms%n",
+                    millis(sorted, 50), millis(sorted, 95), millis(sorted, 99), millis(sorted, 100));
+        }
+    }
+
+    private static String severityOf(String routingKey) {
+        String last = routingKey.substring(routingKey.lastIndexOf('.') + 1);
+        return switch (last) {
+            case "err" -> "ERROR";
+            case "warn" -> "WARN";
+            default -> "INFO";
+        };
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.max(0, Math.ceil(sorted.length * percentile / 100.0) - 1));
+        return sorted[index] / 1e6;
+    }
+}
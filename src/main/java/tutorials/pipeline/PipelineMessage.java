@@ -0,0 +1,50 @@
+package tutorials.pipeline;
+
+import com.rabbitmq.client.AMQP;
+
+//Immutable message flowing through the stages. "key" decides the lane (per key ordering), "routingKey" is used by the sink.
+public class PipelineMessage {
+    private final String key;
+    private final String routingKey;
+    private final AMQP.BasicProperties properties;
+    private final byte[] body;
+
+    // Delivery tag of the SOURCE message, acked when the derived message is confirmed.
+    final long sourceDeliveryTag;
+
+    PipelineMessage(long sourceDeliveryTag, String key, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        this.sourceDeliveryTag = sourceDeliveryTag;
+        this.key = key;
+        this.routingKey = routingKey;
+        this.properties = properties;
+        this.body = body;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public String routingKey() {
+        return routingKey;
+    }
+
+    public AMQP.BasicProperties properties() {
+        return properties;
+    }
+
+    public byte[] body() {
+        return body;
+    }
+
+    public PipelineMessage withBody(byte[] newBody) {
+        return new PipelineMessage(sourceDeliveryTag, key, routingKey, properties, newBody);
+    }
+
+    public PipelineMessage withRoutingKey(String newRoutingKey) {
+        return new PipelineMessage(sourceDeliveryTag, key, newRoutingKey, properties, body);
+    }
+
+    public PipelineMessage withProperties(AMQP.BasicProperties newProperties) {
+        return new PipelineMessage(sourceDeliveryTag, key, routingKey, newProperties, body);
+    }
+}
@@ -0,0 +1,9 @@
+package tutorials.pipeline;
+
+//One transformation step of a "Pipeline".
+//Returns the message for the next stage (the same or a new one with "with..." methods), or null to drop it (source is acked).
+//A thrown exception rejects the source message (nack WITHOUT requeue, so a poison message does not loop forever).
+@FunctionalInterface
+public interface Stage {
+    PipelineMessage apply(PipelineMessage message) throws Exception;
+}
@@ -4,6 +4,7 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.DeliverCallback;
+import tutorials.keystats.RoutingKeyStats;
 
 public class Consumer {
     private static final String EXCHANGE_NAME = "direct_logs";
@@ -38,6 +39,10 @@ public class Consumer {
             System.out.println(" [x] Received '" +
                     delivery.getEnvelope().getRoutingKey() + "':'" + message + "'");
         };
-        channel.basicConsume(queueName, true, deliverCallback, consumerTag -> { });
+        //7. Per routing key statistics (rate, bytes, processing time) with bounded memory: top-K report every 10 seconds,
+        //and JMX view ("tutorials:type=RoutingKeyStats", jconsole -> MBeans).
+        RoutingKeyStats stats = new RoutingKeyStats(EXCHANGE_NAME).registerMBean().startReporting(10);
+
+        channel.basicConsume(queueName, true, stats.recording(deliverCallback), consumerTag -> { });
     }
 }
@@ -2,11 +2,20 @@ package tutorials.rpc.receiver;
 
 import com.rabbitmq.client.*;
 
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class RPCServer {
 
 
     private static final String RPC_QUEUE_NAME = "rpc_queue";
 
+    //Fanout exchange that servers announce their own queue to (for "LoadBalancedRPCClient").
+    private static final String INSTANCES_EXCHANGE_NAME = "rpc_instances";
+    private static final long ANNOUNCE_INTERVAL_MS = 1_000;
+
     private static int fib(int n) {
         if (n == 0) return 0;
         if (n == 1) return 1;
@@ -14,6 +23,9 @@ public class RPCServer {
     }
 
     public static void main(String[] argv) throws Exception {
+        //Optional artificial delay (ms) for each request, to simulate a slow instance. Example: RPCServer 200
+        long delayMs = argv.length > 0 ? Long.parseLong(argv[0]) : 0;
+
         //1. Connection to Server (NOTE: Not in "TryWithResources" because continue listening queue)
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
@@ -24,13 +36,18 @@ public class RPCServer {
         //2. Queue declaration.
         channel.queueDeclare(RPC_QUEUE_NAME, false, false, false, null);
 
-        //3. Cleaning all messages from queue.
-        channel.queuePurge(RPC_QUEUE_NAME);
+        //3. NOTE: shared queue is NOT purged on start. With more than one server instance (rolling scale-out), a starting
+        //instance would delete requests that other instances have not processed yet.
+
+        //3.1. Per instance queue (exclusive, auto-delete: removed when this server stops), so a client can choose the instance.
+        String instanceQueueName = RPC_QUEUE_NAME + "." + UUID.randomUUID();
+        channel.queueDeclare(instanceQueueName, false, true, true, null);
 
         //4. Only 1 non Ack message processing.
         channel.basicQos(1);
 
-        System.out.println(" [x] Awaiting RPC requests");
+        System.out.println(" [x] Awaiting RPC requests on \"" + RPC_QUEUE_NAME + "\" and \"" + instanceQueueName + "\""
+                + (delayMs > 0 ? " (artificial delay " + delayMs + " ms)" : ""));
 
         //5. Callback method for consuming.
         DeliverCallback deliverCallback = (consumerTag, delivery) -> {
@@ -49,9 +66,14 @@ public class RPCServer {
                 int n = Integer.parseInt(message);
 
                 System.out.println(" [.] fib(" + message + ")");
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
                 response += fib(n);
             } catch (RuntimeException e) {
                 System.out.println(" [.] " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
                 //5.2. routing key setting from consumed message's "replyTo" property to specify queue name (when using default exchange -> "")
                 channel.basicPublish("", delivery.getProperties().getReplyTo(), replyProps, response.getBytes("UTF-8"));
@@ -61,7 +83,21 @@ public class RPCServer {
             }
         };
 
+        //6. Same callback for both queues: shared queue (fallback of clients) and instance queue.
         channel.basicConsume(RPC_QUEUE_NAME, false, deliverCallback, (consumerTag -> {}));
+        channel.basicConsume(instanceQueueName, false, deliverCallback, (consumerTag -> {}));
+
+        //7. Periodic announcement of the instance queue name. Clients forget an instance after a few missing announcements.
+        //Separate channel, because "channel" is used by the consumer callback thread.
+        Channel announceChannel = connection.createChannel();
+        announceChannel.exchangeDeclare(INSTANCES_EXCHANGE_NAME, BuiltinExchangeType.FANOUT);
+        ScheduledExecutorService announcer = Executors.newSingleThreadScheduledExecutor();
+        announcer.scheduleAtFixedRate(() -> {
+            try {
+                announceChannel.basicPublish(INSTANCES_EXCHANGE_NAME, "", null, instanceQueueName.getBytes("UTF-8"));
+            } catch (Exception e) {
+                System.out.println(" [!] Instance announcement failed: " + e);
+            }
+        }, 0, ANNOUNCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 }
-
@@ -0,0 +1,377 @@
+package tutorials.rpc.sender;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadBalancedRPCClient implements AutoCloseable {
+
+    //NOTES
+    //- Each "RPCServer" consumes the shared "rpc_queue" AND its own instance queue, and announces the instance queue name
+    //  to the "rpc_instances" fanout exchange every second.
+    //- This client picks an instance for each request with "power of two choices": 2 random instances, the one with the
+    //  lower (EWMA latency x (outstanding requests + 1)) wins. A slow instance gets fewer requests WITHOUT a central balancer.
+    //- No known instance (or instance queue gone) -> request goes to the shared "rpc_queue", like "RPCClient".
+    //- Instance queues are exclusive + auto-delete: requests waiting on a stopped instance's queue are deleted with it. When an
+    //  instance stops announcing itself, or a request to it is returned, its outstanding requests are re-sent to "rpc_queue".
+    //- Hedging: if there is no reply after the observed p95 latency, the SAME request is sent to another instance, the first
+    //  reply wins. So at most ~5% of the requests are sent twice, but one slow instance no longer decides the tail latency.
+    //  The p95 is of FIRST attempts only: hedged (faster) replies would lower it, which would hedge more, and so on.
+    //- Hedge and timeout tasks are cancelled when the call is settled, so the scheduler holds only in-flight calls.
+    //- Unlike "RPCClient" ONE reply queue is used for all requests (requests are matched by "correlationId").
+
+    private static final String SHARED_QUEUE_NAME = "rpc_queue";
+    private static final String INSTANCES_EXCHANGE_NAME = "rpc_instances";
+    private static final long INSTANCE_EXPIRY_MS = 3_500;
+    private static final long REQUEST_TIMEOUT_MS = 30_000;
+    private static final double EWMA_ALPHA = 0.2;
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final Connection connection;
+    private final Channel channel;
+    private final String replyQueueName;
+    private final boolean balancing;
+    private final boolean hedging;
+
+    private final Map<String, ServerInstance> instances = new ConcurrentHashMap<>();
+    private final Map<String, Attempt> attempts = new ConcurrentHashMap<>();
+    private final LatencyWindow latencies = new LatencyWindow(256);
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    //1. Connection to Server, reply queue and instance announcements listening.
+    public LoadBalancedRPCClient(boolean balancing, boolean hedging) throws IOException, TimeoutException {
+        this.balancing = balancing;
+        this.hedging = hedging;
+        //Cancelled tasks are removed from the queue at once, not when their delay is over.
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+
+        connection = factory.newConnection();
+        channel = connection.createChannel();
+
+        //1.1. One reply queue for ALL requests of this client.
+        replyQueueName = channel.queueDeclare().getQueue();
+        channel.basicConsume(replyQueueName, true, (consumerTag, delivery) ->
+                handleReply(delivery.getProperties().getCorrelationId(), new String(delivery.getBody(), StandardCharsets.UTF_8)),
+                consumerTag -> {});
+
+        //1.2. Temp queue bound to announcements fanout exchange: each message body is an instance queue name.
+        channel.exchangeDeclare(INSTANCES_EXCHANGE_NAME, BuiltinExchangeType.FANOUT);
+        String announcementsQueueName = channel.queueDeclare().getQueue();
+        channel.queueBind(announcementsQueueName, INSTANCES_EXCHANGE_NAME, "");
+        channel.basicConsume(announcementsQueueName, true, (consumerTag, delivery) -> {
+            String queueName = new String(delivery.getBody(), StandardCharsets.UTF_8);
+            instances.computeIfAbsent(queueName, ServerInstance::new).lastSeenMillis = System.currentTimeMillis();
+        }, consumerTag -> {});
+
+        //1.3. "mandatory" publishes to a removed instance queue come back here -> instance forgotten, its requests (this one
+        //and the others still waiting on it) re-sent to the shared queue.
+        channel.addReturnListener(returned -> {
+            instances.remove(returned.getRoutingKey());
+            rescue(returned.getRoutingKey());
+        });
+
+        //1.4. Instances that stopped announcing themselves, checked also when no request is sent.
+        scheduler.scheduleAtFixedRate(this::expireInstances, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        //Start some servers before, one of them slow. Example: "RPCServer", "RPCServer", "RPCServer 200"
+        int requests = argv.length > 0 ? Integer.parseInt(argv[0]) : 500;
+        int concurrency = argv.length > 1 ? Integer.parseInt(argv[1]) : 8;
+
+        runScenario("shared queue", false, false, requests, concurrency);
+        runScenario("p2c", true, false, requests, concurrency);
+        runScenario("p2c + hedging", true, true, requests, concurrency);
+    }
+
+    //Sends "requests" fib(20) calls with "concurrency" in flight, prints latency percentiles.
+    static void runScenario(String name, boolean balancing, boolean hedging, int requests, int concurrency) throws Exception {
+        try (LoadBalancedRPCClient client = new LoadBalancedRPCClient(balancing, hedging)) {
+            //Waiting first announcements.
+            Thread.sleep(1_500);
+
+            long[] results = new long[requests];
+            Semaphore inFlight = new Semaphore(concurrency);
+            CountDownLatch done = new CountDownLatch(requests);
+            for (int i = 0; i < requests; i++) {
+                inFlight.acquire();
+                int index = i;
+                long start = System.nanoTime();
+                client.callAsync("20").whenComplete((response, error) -> {
+                    results[index] = error == null ? System.nanoTime() - start : Long.MAX_VALUE;
+                    inFlight.release();
+                    done.countDown();
+                });
+            }
+            done.await();
+
+            Arrays.sort(results);
+            System.out.format(" [x] %-14s instances: %d  p50: %,8.1f ms  p95: %,8.1f ms  p99: %,8.1f ms  max: %,8.1f ms%n",
+                    name, client.instances.size(), millis(results, 50), millis(results, 95), millis(results, 99), millis(results, 100));
+        }
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.max(0, Math.ceil(sorted.length * percentile / 100.0) - 1));
+        return sorted[index] / 1e6;
+    }
+
+    //2. RPC server request (blocking, like "RPCClient.call").
+    public String call(String message) throws InterruptedException, ExecutionException {
+        return callAsync(message).get();
+    }
+
+    public CompletableFuture<String> callAsync(String message) {
+        Call call = new Call(message.getBytes(StandardCharsets.UTF_8));
+
+        //2.1. First attempt to the chosen instance (or shared queue).
+        ServerInstance first = send(call, null, true);
+
+        //2.2. Hedged attempt when the first one is slower than the recent p95 latency (no hedging until p95 is known).
+        long p95 = latencies.p95();
+        if (hedging && balancing && p95 > 0) {
+            call.hedgeTask = scheduler.schedule(() -> {
+                if (!call.response.isDone()) {
+                    send(call, first, false);
+                }
+            }, Math.max(MIN_HEDGE_DELAY_NANOS, p95), TimeUnit.NANOSECONDS);
+        }
+
+        //2.3. No reply at all (server died while processing). Attempts are kept until then, so the reply of a losing
+        //(slower) attempt still updates its instance's latency.
+        call.timeoutTask = scheduler.schedule(() -> {
+            call.response.completeExceptionally(new TimeoutException("No RPC reply in " + REQUEST_TIMEOUT_MS + " ms"));
+            call.attemptIds.forEach(this::expireAttempt);
+        }, REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        //2.4. Answered: no hedge anymore, and no timeout when no other attempt is still waiting for its reply.
+        call.response.whenComplete((response, error) -> {
+            cancel(call.hedgeTask);
+            settle(call);
+        });
+        return call.response;
+    }
+
+    //Publishes one attempt of "call" to an instance other than "exclude". Returns the instance, null for the shared queue.
+    private ServerInstance send(Call call, ServerInstance exclude, boolean first) {
+        return publish(call, balancing ? choose(exclude) : null, first);
+    }
+
+    //"instance" null -> shared queue.
+    private ServerInstance publish(Call call, ServerInstance instance, boolean first) {
+        String corrId = UUID.randomUUID().toString();
+        Attempt attempt = new Attempt(call, instance != null ? instance : ServerInstance.SHARED, first);
+        attempts.put(corrId, attempt);
+        call.attemptIds.add(corrId);
+        attempt.instance.outstanding.incrementAndGet();
+
+        AMQP.BasicProperties props = new AMQP.BasicProperties
+                .Builder()
+                .correlationId(corrId)
+                .replyTo(replyQueueName)
+                .build();
+        try {
+            //Channel is shared by caller threads and the hedging scheduler, publishes must not interleave.
+            synchronized (channel) {
+                channel.basicPublish("", instance != null ? instance.queueName : SHARED_QUEUE_NAME, instance != null, props, call.body);
+            }
+        } catch (IOException e) {
+            //Never reached the server: no latency sample (it would be ~0 and make a broken instance look fast).
+            Attempt failed = attempts.remove(corrId);
+            if (failed != null) {
+                failed.instance.outstanding.decrementAndGet();
+            }
+            call.response.completeExceptionally(e);
+        }
+        return instance;
+    }
+
+    //Power of two choices over the live instances.
+    private ServerInstance choose(ServerInstance exclude) {
+        expireInstances();
+        List<ServerInstance> live = new ArrayList<>();
+        for (ServerInstance instance : instances.values()) {
+            if (instance != exclude) {
+                live.add(instance);
+            }
+        }
+        if (live.isEmpty()) {
+            return null;
+        }
+        if (live.size() == 1) {
+            return live.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(live.size());
+        int b = random.nextInt(live.size() - 1);
+        if (b >= a) {
+            b++;
+        }
+        ServerInstance first = live.get(a);
+        ServerInstance second = live.get(b);
+        return first.score() <= second.score() ? first : second;
+    }
+
+    private void expireInstances() {
+        long now = System.currentTimeMillis();
+        for (ServerInstance instance : instances.values()) {
+            if (now - instance.lastSeenMillis > INSTANCE_EXPIRY_MS && instances.remove(instance.queueName, instance)) {
+                rescue(instance.queueName);
+            }
+        }
+    }
+
+    //Instance queue is gone (with the requests in it): its outstanding attempts go to the shared queue, no latency sample.
+    private void rescue(String queueName) {
+        for (Map.Entry<String, Attempt> entry : attempts.entrySet()) {
+            Attempt attempt = entry.getValue();
+            if (!attempt.instance.queueName.equals(queueName) || !attempts.remove(entry.getKey(), attempt)) {
+                continue; // Other instance, or its reply won the race.
+            }
+            attempt.instance.outstanding.decrementAndGet();
+            if (!attempt.call.response.isDone()) {
+                publish(attempt.call, null, attempt.first);
+            }
+            settle(attempt.call);
+        }
+    }
+
+    private void handleReply(String corrId, String response) {
+        Attempt attempt = attempts.remove(corrId);
+        if (attempt == null) {
+            return; // Late reply of an expired attempt.
+        }
+        long latency = System.nanoTime() - attempt.sentNanos;
+        attempt.instance.outstanding.decrementAndGet();
+        attempt.instance.recordLatency(latency);
+        if (attempt.first) {
+            latencies.record(latency);
+        }
+
+        //First reply wins, also a slower duplicate updates the instance's latency above.
+        attempt.call.response.complete(response);
+        settle(attempt.call);
+    }
+
+    //Timeout task is not needed anymore when the call is answered and none of its attempts waits for a reply.
+    private void settle(Call call) {
+        if (call.response.isDone() && call.attemptIds.stream().noneMatch(attempts::containsKey)) {
+            cancel(call.timeoutTask);
+        }
+    }
+
+    private static void cancel(ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void expireAttempt(String corrId) {
+        Attempt attempt = attempts.remove(corrId);
+        if (attempt != null) {
+            //No reply in "REQUEST_TIMEOUT_MS": counted as a (very slow) sample, so the instance is not preferred for a while.
+            attempt.instance.outstanding.decrementAndGet();
+            attempt.instance.recordLatency(System.nanoTime() - attempt.sentNanos);
+            if (attempt.first) {
+                latencies.record(System.nanoTime() - attempt.sentNanos);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        connection.close();
+    }
+
+    static class Call {
+        final byte[] body;
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final List<String> attemptIds = new CopyOnWriteArrayList<>();
+        volatile ScheduledFuture<?> hedgeTask;
+        volatile ScheduledFuture<?> timeoutTask;
+
+        Call(byte[] body) {
+            this.body = body;
+        }
+    }
+
+    static class Attempt {
+        final Call call;
+        final ServerInstance instance;
+        //Only first attempts are samples of the hedging threshold.
+        final boolean first;
+        final long sentNanos = System.nanoTime();
+
+        Attempt(Call call, ServerInstance instance, boolean first) {
+            this.call = call;
+            this.instance = instance;
+            this.first = first;
+        }
+    }
+
+    static class ServerInstance {
+        //Stands for the shared queue, its numbers are not used for choosing.
+        static final ServerInstance SHARED = new ServerInstance(SHARED_QUEUE_NAME);
+
+        final String queueName;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile long lastSeenMillis = System.currentTimeMillis();
+        private volatile double ewmaLatencyNanos = -1;
+
+        ServerInstance(String queueName) {
+            this.queueName = queueName;
+        }
+
+        synchronized void recordLatency(long nanos) {
+            ewmaLatencyNanos = ewmaLatencyNanos < 0 ? nanos : EWMA_ALPHA * nanos + (1 - EWMA_ALPHA) * ewmaLatencyNanos;
+        }
+
+        //Instance without any sample has score 0, so new instances get requests quickly.
+        double score() {
+            return Math.max(0, ewmaLatencyNanos) * (outstanding.get() + 1);
+        }
+    }
+
+    //Latency of the last N calls, p95 recomputed every 32 records (sorting on every request would be too expensive).
+    static class LatencyWindow {
+        private final long[] samples;
+        private int count;
+        private int next;
+        private volatile long p95 = 0;
+
+        LatencyWindow(int size) {
+            samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(samples.length, count + 1);
+            if (next % 32 == 0) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                p95 = sorted[(int) Math.ceil(count * 0.95) - 1];
+            }
+        }
+
+        long p95() {
+            return p95;
+        }
+    }
+}